@@ -0,0 +1,118 @@
+package avltree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Consistency checks linear in the tree size. Plug one in with tree.setInvariantChecker(AVLInvariants::check),
+// or run checkStructure after every mutation of every tree with -Davltree.debug=true
+public final class AVLInvariants {
+    private AVLInvariants() {
+    }
+
+    public static <E> void check(AVLTree<E> tree) {
+        tree.checkInvariants(true);
+    }
+
+    // Skips key order, which AVLTree.join does not require of its inputs
+    public static <E> void checkStructure(AVLTree<E> tree) {
+        tree.checkInvariants(false);
+    }
+
+    // The node checks every representation shares; returns the nodes in tree order
+    static <E> List<AVLNode<E>> checkNodes(AVLTree<E> tree, boolean ordered) {
+        List<AVLNode<E>> nodes = new ArrayList<>();
+        AVLNode<E> head = tree.head;
+        if (head == null) {
+            checkNodeCount(tree, 0);
+            return nodes;
+        }
+
+        if (head.parent != null) {
+            throw new IllegalStateException("Root has a parent: " + head);
+        }
+
+        checkSubtree(head, nodes);
+
+        // A wrap-around retainInterval leaves the keys rotated, so they only have to be sorted around the ring
+        int descents = 0;
+        for (int i = 0; i < nodes.size(); ++i) {
+            AVLNode<E> node = nodes.get(i);
+            AVLNode<E> next = nodes.get((i + 1) % nodes.size());
+            if (node.next != next || next.prev != node) {
+                throw new IllegalStateException("Thread does not follow tree order at " + node);
+            }
+
+            if (ordered && tree.compare(node.value, next.value) > 0 && ++descents > 1) {
+                throw new IllegalStateException("Keys out of order: " + node + " before " + next);
+            }
+        }
+
+        checkNodeCount(tree, nodes.size());
+        return nodes;
+    }
+
+    private static <E> void checkNodeCount(AVLTree<E> tree, int nodes) {
+        if (tree.nodeCount() != nodes) {
+            throw new IllegalStateException("Node count " + tree.nodeCount() + " instead of " + nodes);
+        }
+    }
+
+    // For keys kept in the first count slots of an array: the rest must be empty, and with ordered the keys
+    // sorted, around the ring when cyclic
+    static <E> void checkSlots(AVLTree<E> tree, Object[] slots, int count, boolean ordered, boolean cyclic) {
+        if (count > slots.length) {
+            throw new IllegalStateException(count + " keys in " + slots.length + " slots");
+        }
+
+        int descents = 0;
+        for (int i = 0; ordered && i < count; ++i) {
+            @SuppressWarnings("unchecked")
+            E key = (E) slots[i];
+            @SuppressWarnings("unchecked")
+            E next = (E) slots[(i + 1) % count];
+            if ((cyclic || i + 1 < count) && tree.compare(key, next) > 0 && (!cyclic || ++descents > 1)) {
+                throw new IllegalStateException("Keys out of order: " + key + " before " + next);
+            }
+        }
+
+        for (int i = 0; i < slots.length; ++i) {
+            if ((i < count) != (slots[i] != null)) {
+                throw new IllegalStateException(count + " keys but slot " + i + " holds " + slots[i]);
+            }
+        }
+    }
+
+    // Appends the subtree's nodes in key order and returns its height
+    private static <E> int checkSubtree(AVLNode<E> node, List<AVLNode<E>> nodes) {
+        if (node == null) {
+            return 0;
+        }
+
+        if (node.left != null && node.left.parent != node || node.right != null && node.right.parent != node) {
+            throw new IllegalStateException("Stale parent link under " + node);
+        }
+
+        int leftHeight = checkSubtree(node.left, nodes);
+        nodes.add(node);
+        int rightHeight = checkSubtree(node.right, nodes);
+
+        int height = Math.max(leftHeight, rightHeight) + 1;
+        if (AVLNode.getHeight(node) != height) {
+            throw new IllegalStateException("Height " + AVLNode.getHeight(node) + " instead of " + height + " at " +
+                    node);
+        }
+
+        if (!AVLNode.isBalanced(node)) {
+            throw new IllegalStateException("Unbalanced at " + node);
+        }
+
+        int multiplicity = AVLNode.getMultiplicity(node);
+        int count = AVLNode.getNodeCount(node.left) + AVLNode.getNodeCount(node.right) + multiplicity;
+        if (multiplicity < 0 || AVLNode.getNodeCount(node) != count) {
+            throw new IllegalStateException("Count " + AVLNode.getNodeCount(node) + " instead of " + count + " at " +
+                    node);
+        }
+
+        return height;
+    }
+}
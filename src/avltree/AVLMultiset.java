@@ -0,0 +1,225 @@
+package avltree;
+
+import java.util.Collection;
+import java.util.Comparator;
+
+import static avltree.AVLNode.balance;
+
+// Keeps one node per distinct key and stores the number of occurrences in the node itself
+public class AVLMultiset<E> extends AVLTree<E> {
+    // Occurrences the last insert or remove descent found for its key, so add and remove need no count first
+    private int lastCount;
+
+    public AVLMultiset() {
+        super();
+    }
+
+    public AVLMultiset(Comparator<? super E> comparator) {
+        super(comparator);
+    }
+
+    public AVLMultiset(AVLNode<E> head, Comparator<? super E> comparator) {
+        super(head, comparator);
+    }
+
+    public AVLMultiset(Collection<? extends E> c) {
+        super(c);
+    }
+
+    public AVLMultiset(Collection<? extends E> c, Comparator<? super E> comparator) {
+        super(c, comparator);
+    }
+
+    @Override
+    AVLTree<E> newTree(AVLNode<E> head) {
+        return new AVLMultiset<>(head, getComparator());
+    }
+
+    // One node per distinct element
+    @Override
+    public int nodeCount() {
+        return countedNodes();
+    }
+
+    public int count(Object o) {
+        if (o == null) {
+            return 0;
+        }
+
+        try {
+            @SuppressWarnings("unchecked")
+            E e = (E) o;
+            return AVLNode.getMultiplicity(find(head, e));
+        }
+        catch (ClassCastException e) {
+            return 0;
+        }
+    }
+
+    public int add(E e, int occurrences) {
+        if (occurrences < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        checkKey(e);
+        if (occurrences == 0) {
+            return count(e);
+        }
+
+        checkCapacity(occurrences);
+        head = insert(head, e, occurrences);
+        modified();
+        if (changeLog != null) {
+            changeLog.add(e, occurrences);
+        }
+
+        return lastCount;
+    }
+
+    public int remove(Object o, int occurrences) {
+        if (occurrences < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        if (occurrences == 0 || o == null) {
+            return count(o);
+        }
+
+        try {
+            @SuppressWarnings("unchecked")
+            E e = (E) o;
+            lastCount = 0;
+            head = remove(head, e, occurrences);
+            if (lastCount > 0) {
+                modified();
+                if (changeLog != null) {
+                    changeLog.remove(e, Math.min(lastCount, occurrences));
+                }
+            }
+
+            return lastCount;
+        }
+        catch (ClassCastException e) {
+            return 0;
+        }
+    }
+
+    // Counts are ints all the way up to size(), so no key may push the total past Integer.MAX_VALUE
+    private void checkCapacity(int occurrences) {
+        if (occurrences > Integer.MAX_VALUE - this.size()) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    public int removeAll(E e) {
+        return remove(e, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public AVLNode<E> fingerInsert(AVLNode<E> finger, E value) {
+        checkKey(value);
+        checkCapacity(1);
+        AVLNode<E> node = fingerFind(finger, value);
+        if (node == null) {
+            return super.fingerInsert(finger, value);
+        }
+
+        AVLNode.setMultiplicity(node, AVLNode.getMultiplicity(node) + 1);
+        AVLNode.updatePath(node.parent);
+        modified();
+        if (changeLog != null) {
+            changeLog.add(value, 1);
+        }
+
+        return node;
+    }
+
+    @Override
+    public AVLNode<E> insert(AVLNode<E> p, E value) {
+        checkCapacity(1);
+        return insert(p, value, 1);
+    }
+
+    @Override
+    public AVLNode<E> remove(AVLNode<E> p, E value) {
+        return remove(p, value, 1);
+    }
+
+    @Override
+    void removeNode(AVLNode<E> node) {
+        if (AVLNode.getMultiplicity(node) == 1) {
+            super.removeNode(node);
+            return;
+        }
+
+        AVLNode.setMultiplicity(node, AVLNode.getMultiplicity(node) - 1);
+        AVLNode.updatePath(node.parent);
+        modified();
+    }
+
+    AVLNode<E> insert(AVLNode<E> p, E value, int occurrences) {
+        if (p == null) {
+            lastCount = 0;
+            nodeAdded(value);
+            AVLNode<E> node = new AVLNode<>(value);
+            AVLNode.setMultiplicity(node, occurrences);
+            return node;
+        }
+
+        int cmp = compare(value, p.value);
+        if (cmp == 0) {
+            lastCount = AVLNode.getMultiplicity(p);
+            AVLNode.setMultiplicity(p, AVLNode.getMultiplicity(p) + occurrences);
+            return p;
+        }
+
+        if (cmp < 0) {
+            if (p.left != null) {
+                AVLNode.setLeft(p, insert(p.left, value, occurrences));
+            }
+            else {
+                lastCount = 0;
+                nodeAdded(value);
+                AVLNode<E> node = new AVLNode<>(value, null, null, p.prev, p);
+                AVLNode.setMultiplicity(node, occurrences);
+                AVLNode.setLeft(p, node);
+            }
+        } else {
+            if (p.right != null) {
+                AVLNode.setRight(p, insert(p.right, value, occurrences));
+            }
+            else {
+                lastCount = 0;
+                nodeAdded(value);
+                AVLNode<E> node = new AVLNode<>(value, null, null, p, p.next);
+                AVLNode.setMultiplicity(node, occurrences);
+                AVLNode.setRight(p, node);
+            }
+        }
+
+        return balance(p);
+    }
+
+    AVLNode<E> remove(AVLNode<E> p, E value, int occurrences) {
+        if (p == null) {
+            return null;
+        }
+
+        int cmp = compare(value, p.value);
+        if (cmp < 0) {
+            AVLNode.setLeft(p, remove(p.left, value, occurrences));
+        } else if (cmp > 0) {
+            AVLNode.setRight(p, remove(p.right, value, occurrences));
+        } else if (AVLNode.getMultiplicity(p) > occurrences) {
+            lastCount = AVLNode.getMultiplicity(p);
+            AVLNode.setMultiplicity(p, AVLNode.getMultiplicity(p) - occurrences);
+            return p;
+        } else {
+            lastCount = AVLNode.getMultiplicity(p);
+            nodeRemoved(p.value);
+            return AVLNode.unlink(p);
+        }
+
+        return balance(p);
+    }
+}
@@ -1,5 +1,8 @@
 package avltree;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class AVLNode<T> {
     public static final int MIN_BALANCE_FACTOR = -1;
     public static final int MAX_BALANCE_FACTOR = 1;
@@ -7,6 +10,7 @@ public class AVLNode<T> {
     public T value;
     private int childrenCount;
     private int height;
+    private int multiplicity = 1;
 
     public AVLNode<T> left;
     public AVLNode<T> right;
@@ -82,7 +86,7 @@ public class AVLNode<T> {
             return;
         }
 
-        if (parent == null) {
+        if (parent == null && repl != null) {
             repl.parent = null;
         }
 
@@ -109,7 +113,16 @@ public class AVLNode<T> {
     }
 
     public static <T> int getNodeCount(AVLNode<T> node) {
-        return node == null ? 0 : node.childrenCount + 1;
+        return node == null ? 0 : node.childrenCount + node.multiplicity;
+    }
+
+    public static <T> int getMultiplicity(AVLNode<T> node) {
+        return node == null ? 0 : node.multiplicity;
+    }
+
+    static <T> void setMultiplicity(AVLNode<T> node, int multiplicity) {
+        node.multiplicity = multiplicity;
+        update(node);
     }
 
     private static <T> void update(AVLNode<T> node) {
@@ -121,8 +134,15 @@ public class AVLNode<T> {
         node.childrenCount = getNodeCount(node.left) + getNodeCount(node.right);
     }
 
+    static <T> void updatePath(AVLNode<T> node) {
+        for (; node != null; node = node.parent) {
+            update(node);
+        }
+    }
+
     private static <T> AVLNode<T> rotateRight(AVLNode<T> p) {
         AVLNode<T> q = p.left;
+        q.parent = p.parent;
         AVLNode.setLeft(p, q.right);
         AVLNode.setRight(q, p);
 
@@ -133,6 +153,7 @@ public class AVLNode<T> {
 
     private static <T> AVLNode<T> rotateLeft(AVLNode<T> q) {
         AVLNode<T> p = q.right;
+        p.parent = q.parent;
         AVLNode.setRight(q, p.left);
         AVLNode.setLeft(p, q);
 
@@ -180,10 +201,68 @@ public class AVLNode<T> {
             return p.right;
         }
 
-        p.left = removeMin(p.left);
+        setLeft(p, removeMin(p.left));
         return balance(p);
     }
 
+    // Takes the node out of the tree and the thread, returning the subtree that replaces it. Like remove, it
+    // leaves the node detached
+    static <T> AVLNode<T> unlink(AVLNode<T> p) {
+        AVLNode<T> q = p.left;
+        AVLNode<T> r = p.right;
+
+        if (r == null) {
+            replaceSon(p.parent, p, q);
+            setNext(p.prev, p.next);
+            detach(p);
+            return q;
+        }
+
+        AVLNode<T> min = findMin(r);
+        replaceSon(p.parent, p, min);
+        setNext(p.prev, p.next);
+        setRight(min, removeMin(r));
+        setLeft(min, q);
+        detach(p);
+        return balance(min);
+    }
+
+    // Removes this very node, whatever its key, and rebalances up the parent chain to the root which is returned
+    static <T> AVLNode<T> remove(AVLNode<T> node) {
+        AVLNode<T> parent = node.parent;
+        AVLNode<T> start = parent;
+        AVLNode<T> repl = node.left;
+
+        if (node.right != null) {
+            repl = findMin(node.right);
+            start = repl;
+            if (repl.parent != node) {
+                start = repl.parent;
+                setLeft(repl.parent, repl.right);
+                setRight(repl, node.right);
+            }
+
+            setLeft(repl, node.left);
+        }
+
+        replaceSon(parent, node, repl);
+        setNext(node.prev, node.next);
+        detach(node);
+        return start == null ? repl : balanceBranch(start);
+    }
+
+    // Clears the tree links of a node dropped from its tree, so that as a finger it is told apart from the root.
+    // next stays valid so iterators and fingers can move on from it
+    static <T> void detach(AVLNode<T> node) {
+        node.parent = null;
+        node.left = null;
+        node.right = null;
+    }
+
+    static <T> boolean isDetached(AVLNode<T> node, AVLNode<T> root) {
+        return node.parent == null && node != root;
+    }
+
     public static <T> AVLNode<T> join(AVLNode<T> left, AVLNode<T> right) {
         if (left == null) {
             return right;
@@ -196,11 +275,47 @@ public class AVLNode<T> {
         AVLNode<T> head = findMin(right);
         setNext(findMax(left), head);
         setNext(findMax(right), findMin(left));
-        setRight(head, removeMin(right));
-        setLeft(head, left);
-        head.parent = null;
+        right = removeMin(right);
+        if (right != null) {
+            right.parent = null;
+        }
 
-        return balanceBranch(head);
+        return joinWithRoot(left, head, right);
+    }
+
+    // Hangs the shorter tree next to the pivot on the spine of the taller one, O(height difference)
+    static <T> AVLNode<T> joinWithRoot(AVLNode<T> left, AVLNode<T> pivot, AVLNode<T> right) {
+        if (getHeight(left) > getHeight(right) + 1) {
+            AVLNode<T> node = left;
+            while (getHeight(node.right) > getHeight(right) + 1) {
+                node = node.right;
+            }
+
+            setLeft(pivot, node.right);
+            setRight(pivot, right);
+            update(pivot);
+            setRight(node, pivot);
+            return balanceBranch(node);
+        }
+
+        if (getHeight(right) > getHeight(left) + 1) {
+            AVLNode<T> node = right;
+            while (getHeight(node.left) > getHeight(left) + 1) {
+                node = node.left;
+            }
+
+            setRight(pivot, node.left);
+            setLeft(pivot, left);
+            update(pivot);
+            setLeft(node, pivot);
+            return balanceBranch(node);
+        }
+
+        pivot.parent = null;
+        setLeft(pivot, left);
+        setRight(pivot, right);
+        update(pivot);
+        return pivot;
     }
 
     public static <T> AVLNode<T> balanceBranch(AVLNode<T> node) {
@@ -219,17 +334,141 @@ public class AVLNode<T> {
         return last;
     }
 
+    // Links the nodes, given in order, into a perfectly balanced tree with a fresh circular thread
+    static <T> AVLNode<T> build(List<AVLNode<T>> nodes) {
+        for (int i = 0; i < nodes.size(); ++i) {
+            setNext(nodes.get(i), nodes.get((i + 1) % nodes.size()));
+        }
+
+        AVLNode<T> res = build(nodes, 0, nodes.size());
+        if (res != null) {
+            res.parent = null;
+        }
+
+        return res;
+    }
+
+    private static <T> AVLNode<T> build(List<AVLNode<T>> nodes, int from, int to) {
+        if (from == to) {
+            return null;
+        }
+
+        int mid = (from + to) >>> 1;
+        AVLNode<T> node = nodes.get(mid);
+        node.left = null;
+        node.right = null;
+        setLeft(node, build(nodes, from, mid));
+        setRight(node, build(nodes, mid + 1, to));
+        update(node);
+        return node;
+    }
+
     public static <T> T get(AVLNode<T> node, int index) {
         if (index < 0 || index >= getNodeCount(node)) {
             throw new IndexOutOfBoundsException();
         }
 
-        if (index == getNodeCount(node.left)) {
+        int leftCount = getNodeCount(node.left);
+        if (index >= leftCount && index < leftCount + node.multiplicity) {
             return node.value;
         } else {
-            return index < getNodeCount(node.left) ? get(node.left, index) :
-                    get(node.right, index - getNodeCount(node.left) - 1);
+            return index < leftCount ? get(node.left, index) :
+                    get(node.right, index - leftCount - node.multiplicity);
+        }
+    }
+
+    // Position of the node's first occurrence in its tree, counted on the way up to the root
+    public static <T> int indexOf(AVLNode<T> node) {
+        int res = getNodeCount(node.left);
+        for (; node.parent != null; node = node.parent) {
+            if (node.parent.right == node) {
+                res += getNodeCount(node.parent.left) + node.parent.multiplicity;
+            }
+        }
+
+        return res;
+    }
+
+    // Splits into the first index elements and the rest, each with its own circular thread, in O(log n)
+    static <T> List<AVLNode<T>> splitAt(AVLNode<T> head, int index) {
+        if (head == null) {
+            List<AVLNode<T>> res = new ArrayList<>();
+            res.add(null);
+            res.add(null);
+            return res;
+        }
+
+        AVLNode<T> min = findMin(head);
+        AVLNode<T> max = findMax(head);
+        head.parent = null;
+        List<AVLNode<T>> res = splitNodesAt(head, index);
+
+        setNext(findMax(res.get(0)), min);
+        setPrev(findMin(res.get(1)), max);
+        return res;
+    }
+
+    private static <T> List<AVLNode<T>> splitNodesAt(AVLNode<T> node, int index) {
+        if (node == null) {
+            List<AVLNode<T>> res = new ArrayList<>();
+            res.add(null);
+            res.add(null);
+            return res;
         }
+
+        AVLNode<T> left = node.left;
+        AVLNode<T> right = node.right;
+        if (left != null) {
+            left.parent = null;
+        }
+
+        if (right != null) {
+            right.parent = null;
+        }
+
+        int leftCount = getNodeCount(left);
+        if (index <= leftCount) {
+            List<AVLNode<T>> res = splitNodesAt(left, index);
+            res.set(1, joinWithRoot(res.get(1), node, right));
+            return res;
+        }
+
+        List<AVLNode<T>> res = splitNodesAt(right, index - leftCount - node.multiplicity);
+        res.set(0, joinWithRoot(left, node, res.get(0)));
+        return res;
+    }
+
+    // Appends the values at the sorted ranks[from, to) to res, the subtree holding the ranks starting at offset
+    static <T> void select(AVLNode<T> node, int[] ranks, int from, int to, int offset, List<T> res) {
+        if (from == to) {
+            return;
+        }
+
+        int leftEnd = offset + getNodeCount(node.left);
+        int nodeEnd = leftEnd + node.multiplicity;
+        int i = lowerBound(ranks, from, to, leftEnd);
+        int j = lowerBound(ranks, i, to, nodeEnd);
+
+        select(node.left, ranks, from, i, offset, res);
+        for (int k = i; k < j; ++k) {
+            res.add(node.value);
+        }
+
+        select(node.right, ranks, j, to, nodeEnd, res);
+    }
+
+    private static int lowerBound(int[] ranks, int from, int to, int rank) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (ranks[mid] < rank) {
+                from = mid + 1;
+            }
+            else {
+                to = mid;
+            }
+        }
+
+        return from;
     }
 
     @Override
@@ -0,0 +1,217 @@
+package avltree;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// The AVL engine ordered by position instead of by key: a rope with O(log n) positional insert, remove, split
+// and concat. Nodes keep the circular prev/next thread, so neighbours of a held node are O(1) away
+public class AVLSequence<E> extends AbstractList<E> {
+    AVLNode<E> head;
+
+    public AVLSequence() {
+    }
+
+    public AVLSequence(Collection<? extends E> c) {
+        List<AVLNode<E>> nodes = new ArrayList<>(c.size());
+        for (E e : c) {
+            nodes.add(new AVLNode<>(e));
+        }
+
+        head = AVLNode.build(nodes);
+    }
+
+    private AVLSequence(AVLNode<E> head) {
+        this.head = head;
+    }
+
+    public AVLNode<E> getHead() {
+        return head;
+    }
+
+    @Override
+    public int size() {
+        return AVLNode.getNodeCount(head);
+    }
+
+    @Override
+    public E get(int index) {
+        return node(index).value;
+    }
+
+    @Override
+    public E set(int index, E element) {
+        AVLNode<E> node = node(index);
+        E res = node.value;
+        node.value = element;
+        return res;
+    }
+
+    public AVLNode<E> node(int index) {
+        if (index < 0 || index >= this.size()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        AVLNode<E> node = head;
+        while (true) {
+            int leftCount = AVLNode.getNodeCount(node.left);
+            if (index < leftCount) {
+                node = node.left;
+            }
+            else if (index == leftCount) {
+                return node;
+            }
+            else {
+                index -= leftCount + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    // The node must belong to this sequence
+    public int indexOfNode(AVLNode<E> node) {
+        return AVLNode.indexOf(node);
+    }
+
+    @Override
+    public void add(int index, E element) {
+        if (index < 0 || index > this.size()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        AVLNode<E> node = new AVLNode<>(element);
+        if (head == null) {
+            head = node;
+        }
+        else if (index == this.size()) {
+            AVLNode<E> last = AVLNode.findMax(head);
+            AVLNode.setNext(node, last.next);
+            AVLNode.setNext(last, node);
+            AVLNode.setRight(last, node);
+            head = AVLNode.balanceBranch(last);
+        }
+        else {
+            // The new node goes right before the current holder of index: as its left son, or as the right
+            // son of its predecessor inside the left subtree
+            AVLNode<E> succ = node(index);
+            AVLNode<E> pred = succ.prev;
+            AVLNode.setNext(pred, node);
+            AVLNode.setNext(node, succ);
+            if (succ.left == null) {
+                AVLNode.setLeft(succ, node);
+                head = AVLNode.balanceBranch(succ);
+            }
+            else {
+                AVLNode.setRight(pred, node);
+                head = AVLNode.balanceBranch(pred);
+            }
+        }
+
+        ++modCount;
+    }
+
+    @Override
+    public E remove(int index) {
+        AVLNode<E> node = node(index);
+        head = AVLNode.remove(node);
+        ++modCount;
+        return node.value;
+    }
+
+    @Override
+    public void clear() {
+        head = null;
+        ++modCount;
+    }
+
+    // Cuts out the range with two splits and a join instead of removing element by element
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex) {
+            return;
+        }
+
+        List<AVLNode<E>> tail = AVLNode.splitAt(head, toIndex);
+        List<AVLNode<E>> prefix = AVLNode.splitAt(tail.get(0), fromIndex);
+        head = AVLNode.join(prefix.get(0), tail.get(1));
+        ++modCount;
+    }
+
+    // Leaves this sequence empty and returns the elements before index and the ones from index on
+    public List<AVLSequence<E>> split(int index) {
+        if (index < 0 || index > this.size()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        List<AVLNode<E>> parts = AVLNode.splitAt(head, index);
+        head = null;
+        ++modCount;
+
+        List<AVLSequence<E>> res = new ArrayList<>();
+        res.add(new AVLSequence<>(parts.get(0)));
+        res.add(new AVLSequence<>(parts.get(1)));
+        return res;
+    }
+
+    // Moves the nodes of both sequences into the result, leaving them empty
+    public static <E> AVLSequence<E> concat(AVLSequence<E> left, AVLSequence<E> right) {
+        AVLSequence<E> res = new AVLSequence<>(AVLNode.join(left.head, right.head));
+        left.clear();
+        right.clear();
+        return res;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr();
+    }
+
+    // Walks the thread, one step per element
+    private class Itr implements Iterator<E> {
+        AVLNode<E> next = AVLNode.findMin(head);
+        AVLNode<E> last;
+        int remaining = AVLSequence.this.size();
+        int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public E next() {
+            checkForComodification();
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+
+            last = next;
+            next = next.next;
+            --remaining;
+            return last.value;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+
+            checkForComodification();
+            head = AVLNode.remove(last);
+            ++modCount;
+            last = null;
+            expectedModCount = modCount;
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+}
@@ -2,57 +2,232 @@ package avltree;
 
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
 import static avltree.AVLNode.balance;
-import static avltree.AVLNode.replaceSon;
 
-public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
+public class AVLTree<E> extends AbstractCollection<E> implements OrderedCollection<E> {
+    static final boolean DEBUG = Boolean.getBoolean("avltree.debug");
+
     private Comparator<? super E> comparator;
+    int keyKind;
 
     AVLNode<E> head;
 
+    transient int modCount;
+
+    ChangeLog<E> changeLog;
+
+    private Consumer<? super AVLTree<E>> invariantChecker = DEBUG ? AVLInvariants::checkStructure : null;
+
+    private ToLongFunction<? super E> keySizer;
+
+    // Bytes of the keys of keyedNodes nodes, kept exact by keyed inserts and removals. Bulk changes scale it to
+    // the new node count, taking the keys they drop or bring in to be of average size
+    private long keyBytes;
+    private int keyedNodes;
+    private int nodes = -1;
+
     public AVLTree() {
-        this.comparator = new ComparableComparator<>();
+        this.setComparator(new ComparableComparator<>());
     }
 
     public AVLTree(Comparator<? super E> comparator) {
-        this.comparator = comparator;
+        this.setComparator(comparator);
     }
 
     public AVLTree(AVLNode<E> head) {
-        this.comparator = new ComparableComparator<>();
-        this.head = head;
+        this(head, new ComparableComparator<>());
     }
 
     public AVLTree(AVLNode<E> head, Comparator<? super E> comparator) {
-        this.comparator = comparator;
+        this.setComparator(comparator);
         this.head = head;
+        if (head != null) {
+            checkKey(head.value);
+        }
     }
 
     public AVLTree(Collection<? extends E> c) {
-        this.comparator = new ComparableComparator<>();
+        this.setComparator(new ComparableComparator<>());
         this.addAll(c);
     }
 
     public AVLTree(Collection<? extends E> c, Comparator<? super E> comparator) {
-        this.comparator = comparator;
+        this.setComparator(comparator);
         this.addAll(c);
     }
 
+    // Nodes from elsewhere have no known average, so with a key sizer their keys are sized one by one
     public void setHead(AVLNode<E> head) {
         this.head = head;
+        if (head != null) {
+            checkKey(head.value);
+        }
+
+        recountKeys();
+        modified();
+        if (changeLog != null) {
+            changeLog.reset();
+        }
     }
 
     public AVLNode<E> getHead() {
+        materialize();
         return head;
     }
 
+    // Representations without nodes build them here, before anything reads head from the outside
+    void materialize() {
+    }
+
+    public ChangeLog<E> getChangeLog() {
+        return changeLog;
+    }
+
+    public void setChangeLog(ChangeLog<E> changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    public Consumer<? super AVLTree<E>> getInvariantChecker() {
+        return invariantChecker;
+    }
+
+    // Runs after every mutation, so a broken invariant surfaces at the operation that broke it
+    public void setInvariantChecker(Consumer<? super AVLTree<E>> invariantChecker) {
+        this.invariantChecker = invariantChecker;
+    }
+
+    // Throws IllegalStateException on a broken invariant. Representations with state of their own check it here
+    void checkInvariants(boolean ordered) {
+        AVLInvariants.checkNodes(this, ordered);
+    }
+
+    void modified() {
+        ++modCount;
+        if (invariantChecker != null) {
+            invariantChecker.accept(this);
+        }
+    }
+
+    public ToLongFunction<? super E> getKeySizer() {
+        return keySizer;
+    }
+
+    // Bytes retained by one key, or null to leave keys out of estimatedBytes
+    public void setKeySizer(ToLongFunction<? super E> keySizer) {
+        this.keySizer = keySizer;
+        recountKeys();
+    }
+
+    // Shallow bytes of the tree and its nodes plus, with a key sizer, the keys, in constant time except for
+    // the first call after a split or an interval operation on a multiset or lazy tree
+    public long estimatedBytes() {
+        return shellBytes() + nodeCount() * MemoryLayout.AVL_NODE_BYTES + keyBytes;
+    }
+
+    // Plain trees hold one element per node. Representations with multiplicities use countedNodes instead
+    public int nodeCount() {
+        return AVLNode.getNodeCount(head);
+    }
+
+    // Known exactly through keyed operations; after a split or an interval operation the first call walks
+    int countedNodes() {
+        if (nodes < 0) {
+            nodes = 0;
+            if (head != null) {
+                AVLNode<E> node = head;
+                do {
+                    ++nodes;
+                    node = node.next;
+                } while (node != head);
+            }
+        }
+
+        return nodes;
+    }
+
+    // comparator, head, changeLog, invariantChecker, keySizer, four ints and a long
+    long shellBytes() {
+        return MemoryLayout.objectBytes(5, 4 * 4 + 8);
+    }
+
+    void nodeAdded(E value) {
+        if (nodes >= 0) {
+            ++nodes;
+        }
+
+        if (keySizer != null) {
+            keyBytes += keySizer.applyAsLong(value);
+            ++keyedNodes;
+        }
+    }
+
+    void nodeRemoved(E value) {
+        if (nodes >= 0) {
+            --nodes;
+        }
+
+        if (keySizer != null) {
+            keyBytes -= keySizer.applyAsLong(value);
+            --keyedNodes;
+        }
+    }
+
+    void structureChanged() {
+        nodes = head == null ? 0 : -1;
+        if (keySizer != null) {
+            int n = this.nodeCount();
+            keyBytes = keyedNodes == 0 ? 0 : Math.round((double) keyBytes / keyedNodes * n);
+            keyedNodes = n;
+        }
+    }
+
+    void recountKeys() {
+        nodes = head == null ? 0 : -1;
+        long bytes = 0;
+        if (keySizer != null && head != null) {
+            AVLNode<E> node = head;
+            do {
+                bytes += keySizer.applyAsLong(node.value);
+                node = node.next;
+            } while (node != head);
+        }
+
+        keyBytes = bytes;
+        keyedNodes = keySizer == null ? 0 : this.nodeCount();
+    }
+
     public Comparator<? super E> getComparator() {
         return comparator;
     }
 
     public void setComparator(Comparator<? super E> comparator) {
         this.comparator = comparator;
+        this.keyKind = ComparableComparator.keyKind(comparator);
+    }
+
+    void checkKey(E e) {
+        if (keyKind != ComparableComparator.CUSTOM) {
+            if (e == null) {
+                throw new NullPointerException();
+            }
+
+            if (keyKind == ComparableComparator.NATURAL) {
+                keyKind = ComparableComparator.keyKind(e.getClass());
+            }
+        }
+    }
+
+    // Trees made from this one's nodes or log hold the same keys, so they skip resolving the key kind again
+    void shareKeyKind(AVLTree<E> tree) {
+        tree.keyKind = ComparableComparator.merge(tree.keyKind, keyKind);
+    }
+
+    int compare(E o1, E o2) {
+        return keyKind == ComparableComparator.CUSTOM ? comparator.compare(o1, o2) :
+                ComparableComparator.compare(keyKind, o1, o2);
     }
 
     public int size() {
@@ -68,7 +243,68 @@ public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
             return left;
         }
 
-        return new AVLTree<>(AVLNode.join(left.head, right.head), left.getComparator());
+        left.materialize();
+        right.materialize();
+        if (left.changeLog != null) {
+            left.changeLog.join(right);
+        }
+
+        AVLTree<E> res = left.newTree(AVLNode.join(left.head, right.head));
+        left.shareKeyKind(res);
+        right.shareKeyKind(res);
+        res.changeLog = left.changeLog;
+        res.invariantChecker = left.invariantChecker;
+        res.modified();
+        return res;
+    }
+
+    // Replays a logged join onto this tree in place: the elements go after its own in one O(log n) join, and
+    // the tree's own log records a JOIN rather than a reset
+    void joinElements(Collection<? extends E> elements) {
+        AVLTree<E> right = newTree(null);
+        shareKeyKind(right);
+        right.addAll(elements);
+        materialize();
+        right.materialize();
+        if (changeLog != null) {
+            changeLog.join(right);
+        }
+
+        if (right.head != null) {
+            AVLNode<E> node = right.head;
+            do {
+                nodeAdded(node.value);
+                node = node.next;
+            } while (node != right.head);
+        }
+
+        head = AVLNode.join(head, right.head);
+        modified();
+    }
+
+    AVLTree<E> newTree(AVLNode<E> head) {
+        return new AVLTree<>(head, comparator);
+    }
+
+    public List<AVLTree<E>> split(E value, boolean valueLeft) {
+        List<AVLNode<E>> parts = split(head, value, valueLeft);
+        head = null;
+        structureChanged();
+        modified();
+        if (changeLog != null) {
+            changeLog.clear();
+        }
+
+        List<AVLTree<E>> res = new ArrayList<>();
+        for (AVLNode<E> part : parts) {
+            AVLTree<E> tree = newTree(part);
+            shareKeyKind(tree);
+            tree.invariantChecker = invariantChecker;
+            tree.modified();
+            res.add(tree);
+        }
+
+        return res;
     }
 
     public void retainInterval(E min, E max, boolean minOpen, boolean maxOpen) {
@@ -76,18 +312,25 @@ public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
             throw new NullPointerException();
         }
 
-        if (comparator.compare(min, max) > 0) {
+        if (changeLog != null) {
+            changeLog.retainInterval(min, max, minOpen, maxOpen);
+        }
+
+        if (compare(min, max) > 0) {
             List<AVLNode<E>> maxList = split(head, max, !maxOpen);
             head = maxList.get(1);
             List<AVLNode<E>> minList = split(head, min, minOpen);
             head = AVLNode.join(minList.get(1), maxList.get(0));
-            return;
+        }
+        else {
+            List<AVLNode<E>> minList = split(head, min, minOpen);
+            head = minList.get(1);
+            List<AVLNode<E>> maxList = split(head, max, !maxOpen);
+            head = maxList.get(0);
         }
 
-        List<AVLNode<E>> minList = split(head, min, minOpen);
-        head = minList.get(1);
-        List<AVLNode<E>> maxList = split(head, max, !maxOpen);
-        head = maxList.get(0);
+        structureChanged();
+        modified();
     }
 
     public void retainSegment(E min, E max) {
@@ -103,15 +346,21 @@ public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
             throw new NullPointerException();
         }
 
-        if (comparator.compare(min, max) > 0) {
+        if (compare(min, max) > 0) {
             retainInterval(max, min, !maxOpen, !minOpen);
             return;
         }
 
+        if (changeLog != null) {
+            changeLog.removeInterval(min, max, minOpen, maxOpen);
+        }
+
         List<AVLNode<E>> minList = split(head, min, minOpen);
         head = minList.get(1);
         List<AVLNode<E>> maxList = split(head, max, !maxOpen);
         head = AVLNode.join(minList.get(0), maxList.get(1));
+        structureChanged();
+        modified();
     }
 
     public void removeSegment(E min, E max) {
@@ -122,9 +371,101 @@ public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
         this.removeInterval(min, max, true, true);
     }
 
+    // Counts like retainInterval keeps: when min > max the range wraps around the end of the key space
+    public int countInterval(E min, E max, boolean minOpen, boolean maxOpen) {
+        if (min == null || max == null) {
+            throw new NullPointerException();
+        }
+
+        int from = rank(min, minOpen);
+        int to = rank(max, !maxOpen);
+        if (compare(min, max) > 0) {
+            return to + this.size() - from;
+        }
+
+        return Math.max(to - from, 0);
+    }
+
+    public int countSegment(E min, E max) {
+        return this.countInterval(min, max, false, false);
+    }
+
+    public int countInterval(E min, E max) {
+        return this.countInterval(min, max, true, true);
+    }
+
+    // The first element not less than value, wrapping around to the smallest one, or null if the tree is empty
+    public E ceilingCyclic(E value) {
+        return successorCyclic(value, false);
+    }
+
+    // The first element greater than value, wrapping around to the smallest one, or null if the tree is empty
+    public E higherCyclic(E value) {
+        return successorCyclic(value, true);
+    }
+
+    private E successorCyclic(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+
+        if (this.isEmpty()) {
+            return null;
+        }
+
+        // The circular thread turns the successor of the last node before value into the wrap-around answer
+        AVLNode<E> lower = floorNode(value, inclusive);
+        AVLNode<E> res = lower == null ? AVLNode.findMin(head) : lower.next;
+        while (AVLNode.getMultiplicity(res) == 0) {
+            res = res.next;
+        }
+
+        return res.value;
+    }
+
+    // The last node less than value, or not greater than value when inclusive
+    AVLNode<E> floorNode(E value, boolean inclusive) {
+        AVLNode<E> res = null;
+        AVLNode<E> node = head;
+        while (node != null) {
+            int cmp = compare(value, node.value);
+            if (cmp > 0 || cmp == 0 && inclusive) {
+                res = node;
+                node = node.right;
+            }
+            else {
+                node = node.left;
+            }
+        }
+
+        return res;
+    }
+
+    // Number of elements less than value, or not greater than value when inclusive
+    int rank(E value, boolean inclusive) {
+        int res = 0;
+        AVLNode<E> node = head;
+        while (node != null) {
+            int cmp = compare(value, node.value);
+            if (cmp > 0 || cmp == 0 && inclusive) {
+                res += AVLNode.getNodeCount(node.left) + AVLNode.getMultiplicity(node);
+                node = node.right;
+            }
+            else {
+                node = node.left;
+            }
+        }
+
+        return res;
+    }
+
     @Override
     public Iterator<E> iterator() {
-        return new Itr();
+        return new Itr(false);
+    }
+
+    public Iterator<E> descendingIterator() {
+        return new Itr(true);
     }
 
     @Override
@@ -154,7 +495,16 @@ public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
             E e = (E) o;
             int prevSize = this.size();
             head = remove(head, e);
-            return prevSize != this.size();
+            if (prevSize == this.size()) {
+                return false;
+            }
+
+            modified();
+            if (changeLog != null) {
+                changeLog.remove(e, 1);
+            }
+
+            return true;
         }
         catch (ClassCastException e) {
             return false;
@@ -163,11 +513,34 @@ public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
 
     @Override
     public boolean add(E e) {
+        checkKey(e);
         int prevSize = this.size();
         head = insert(head, e);
+        modified();
+        if (changeLog != null) {
+            changeLog.add(e, 1);
+        }
+
         return prevSize != this.size();
     }
 
+    @Override
+    public void clear() {
+        head = null;
+        structureChanged();
+        modified();
+        if (changeLog != null) {
+            changeLog.clear();
+        }
+    }
+
+    // Removes the given node of this tree rather than the first one found by its key
+    void removeNode(AVLNode<E> node) {
+        nodeRemoved(node.value);
+        head = AVLNode.remove(node);
+        modified();
+    }
+
     public E get(int index) {
         if (index < 0 || index >= this.size()) {
             throw new IndexOutOfBoundsException();
@@ -176,16 +549,222 @@ public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
         return AVLNode.get(head, index);
     }
 
+    // Selects all the ranks in a single descent; the result follows the order of the arguments
+    public List<E> select(int... ranks) {
+        int[] sorted = ranks.clone();
+        Arrays.sort(sorted);
+        if (sorted.length > 0 && (sorted[0] < 0 || sorted[sorted.length - 1] >= this.size())) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        List<E> res = new ArrayList<>(sorted.length);
+        AVLNode.select(head, sorted, 0, sorted.length, 0, res);
+        if (Arrays.equals(sorted, ranks)) {
+            return res;
+        }
+
+        List<E> ordered = new ArrayList<>(ranks.length);
+        for (int rank : ranks) {
+            ordered.add(res.get(Arrays.binarySearch(sorted, rank)));
+        }
+
+        return ordered;
+    }
+
+    // Nearest-rank quantiles, q in [0, 1]
+    public List<E> quantiles(double... qs) {
+        if (this.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+
+        int[] ranks = new int[qs.length];
+        for (int i = 0; i < qs.length; ++i) {
+            ranks[i] = Math.max((int) Math.ceil(checkFraction(qs[i]) * this.size()) - 1, 0);
+        }
+
+        return select(ranks);
+    }
+
+    public E quantile(double q) {
+        return quantiles(q).get(0);
+    }
+
+    // The elements on either side of the percentile position (size - 1) * percentile / 100
+    public E percentileFloor(double percentile) {
+        return get((int) Math.floor(percentilePosition(percentile)));
+    }
+
+    public E percentileCeiling(double percentile) {
+        return get((int) Math.ceil(percentilePosition(percentile)));
+    }
+
+    // k distinct positions drawn uniformly by Floyd's algorithm, returned in tree order
+    public List<E> sample(int k, Random random) {
+        int size = this.size();
+        if (k < 0 || k > size) {
+            throw new IllegalArgumentException();
+        }
+
+        Set<Integer> chosen = new HashSet<>();
+        for (int i = size - k; i < size; ++i) {
+            int rank = random.nextInt(i + 1);
+            chosen.add(chosen.contains(rank) ? i : rank);
+        }
+
+        int[] ranks = new int[k];
+        int i = 0;
+        for (int rank : chosen) {
+            ranks[i++] = rank;
+        }
+
+        Arrays.sort(ranks);
+        return select(ranks);
+    }
+
+    private double percentilePosition(double percentile) {
+        if (this.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+
+        return checkFraction(percentile / 100) * (this.size() - 1);
+    }
+
+    private static double checkFraction(double q) {
+        if (!(q >= 0 && q <= 1)) {
+            throw new IllegalArgumentException();
+        }
+
+        return q;
+    }
+
+    // Finger operations start from a node of this tree close to the target instead of from the head, so the
+    // search costs O(log d) comparisons for a target d positions away. A null finger starts from the head, and
+    // so does any node this tree no longer holds, whether dropped, split off, cleared or moved to another tree
+    public AVLNode<E> fingerFind(AVLNode<E> finger, E value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+
+        return find(finger == null ? head : climb(finger, value), value);
+    }
+
+    // Returns the node now holding value, which makes a good finger for the next nearby operation
+    public AVLNode<E> fingerInsert(AVLNode<E> finger, E value) {
+        checkKey(value);
+        AVLNode<E> node = new AVLNode<>(value);
+        nodeAdded(value);
+        if (head == null) {
+            head = node;
+        }
+        else {
+            AVLNode<E> p = finger == null ? head : climb(finger, value);
+            while (true) {
+                if (compare(value, p.value) < 0) {
+                    if (p.left == null) {
+                        AVLNode.setNext(p.prev, node);
+                        AVLNode.setNext(node, p);
+                        AVLNode.setLeft(p, node);
+                        break;
+                    }
+
+                    p = p.left;
+                }
+                else {
+                    if (p.right == null) {
+                        AVLNode.setNext(node, p.next);
+                        AVLNode.setNext(p, node);
+                        AVLNode.setRight(p, node);
+                        break;
+                    }
+
+                    p = p.right;
+                }
+            }
+
+            // Subtree counts still have to be refreshed all the way up, but without comparisons
+            head = AVLNode.balanceBranch(p);
+        }
+
+        modified();
+        if (changeLog != null) {
+            changeLog.add(value, 1);
+        }
+
+        return node;
+    }
+
+    // Returns a finger next to the removed element, the finger itself if nothing matched, or null once empty
+    public AVLNode<E> fingerRemove(AVLNode<E> finger, E value) {
+        AVLNode<E> node = fingerFind(finger, value);
+        if (node == null) {
+            return finger;
+        }
+
+        AVLNode<E> next = node.next;
+        removeNode(node);
+        if (changeLog != null) {
+            changeLog.remove(value, 1);
+        }
+
+        if (this.isEmpty()) {
+            return null;
+        }
+
+        AVLNode<E> res = AVLNode.getMultiplicity(node) > 0 && !AVLNode.isDetached(node, head) ? node : next;
+        while (AVLNode.getMultiplicity(res) == 0) {
+            res = res.next;
+        }
+
+        return res;
+    }
+
+    // The lowest ancestor of the finger whose subtree bounds lie strictly around value, so every equal key
+    // is inside it; a missing bound is unbounded, so appends past a finger on the spine stay where they are.
+    // Only the bounds on value's side of the finger need comparing, except for a dead finger equal to value,
+    // which says nothing about its live twins. The climb then goes on to the root without comparing, and a
+    // root other than head means the finger belongs to another tree
+    AVLNode<E> climb(AVLNode<E> finger, E value) {
+        int dir = compare(value, finger.value);
+        boolean live = dir == 0 && AVLNode.getMultiplicity(finger) > 0;
+        boolean below = dir > 0 || live;
+        boolean above = dir < 0 || live;
+
+        AVLNode<E> res = finger;
+        AVLNode<E> node = finger;
+        while (node.parent != null) {
+            AVLNode<E> parent = node.parent;
+            boolean lower = parent.right == node;
+            if (lower ? !below : !above) {
+                int cmp = compare(value, parent.value);
+                if (lower ? cmp > 0 : cmp < 0) {
+                    below |= lower;
+                    above |= !lower;
+                }
+                else {
+                    res = parent;
+                    below = dir > 0;
+                    above = dir < 0;
+                }
+            }
+
+            node = parent;
+        }
+
+        return node == head ? res : head;
+    }
+
     public AVLNode<E> insert(AVLNode<E> p, E value) {
         if (p == null) {
+            nodeAdded(value);
             return new AVLNode<>(value);
         }
 
-        if (comparator.compare(value, p.value) < 0) {
+        if (compare(value, p.value) < 0) {
             if (p.left != null) {
                 p.left = insert(p.left, value);
             }
             else {
+                nodeAdded(value);
                 AVLNode.setLeft(p, new AVLNode<>(value, null, null, p.prev, p));
             }
         } else {
@@ -193,6 +772,7 @@ public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
                 p.right = insert(p.right, value);
             }
             else {
+                nodeAdded(value);
                 AVLNode.setRight(p, new AVLNode<>(value, null, null, p, p.next));
             }
         }
@@ -205,7 +785,7 @@ public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
             return null;
         }
 
-        int cmp = comparator.compare(value, p.value);
+        int cmp = compare(value, p.value);
         if (cmp < 0) {
             return find(p.left, value);
         }
@@ -221,27 +801,14 @@ public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
             return null;
         }
 
-        int cmp = comparator.compare(value, p.value);
+        int cmp = compare(value, p.value);
         if (cmp < 0) {
             p.left = remove(p.left, value);
         } else if (cmp > 0) {
             p.right = remove(p.right, value);
         } else {
-            AVLNode<E> q = p.left;
-            AVLNode<E> r = p.right;
-
-            if (r == null) {
-                replaceSon(p.parent, p, q);
-                AVLNode.setNext(p.prev, p.next);
-                return q;
-            }
-
-            AVLNode<E> min = AVLNode.findMin(r);
-            replaceSon(p.parent, p, min);
-            AVLNode.setNext(p.prev, p.next);
-            AVLNode.setRight(min, AVLNode.removeMin(r));
-            AVLNode.setLeft(min, q);
-            return balance(min);
+            nodeRemoved(p.value);
+            return AVLNode.unlink(p);
         }
 
         return balance(p);
@@ -257,54 +824,60 @@ public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
 
         AVLNode<E> min = AVLNode.findMin(head);
         AVLNode<E> max = AVLNode.findMax(head);
-        AVLNode<E> left = null;
-        AVLNode<E> right = null;
-        AVLNode<E> node = head;
-        while (node != null) {
-            int cmp = comparator.compare(value, node.value);
-            if (cmp < 0 || cmp == 0 && !valueLeft) {
-                if (right == null) {
-                    node.parent = null;
-                }
-                else {
-                    AVLNode.setLeft(right, node);
-                }
+        head.parent = null;
+        List<AVLNode<E>> res = splitNodes(head, value, valueLeft);
 
-                right = node;
-                node = node.left;
-            }
-            else {
-                if (left == null) {
-                    node.parent = null;
-                }
-                else {
-                    AVLNode.setRight(left, node);
-                }
+        AVLNode.setNext(AVLNode.findMax(res.get(0)), min);
+        AVLNode.setPrev(AVLNode.findMin(res.get(1)), max);
+        return res;
+    }
 
-                left = node;
-                node = node.right;
-            }
+    // Each level joins the detached subtree back around its root, which adds up to O(log n) overall
+    private List<AVLNode<E>> splitNodes(AVLNode<E> node, E value, boolean valueLeft) {
+        if (node == null) {
+            List<AVLNode<E>> res = new ArrayList<>();
+            res.add(null);
+            res.add(null);
+            return res;
+        }
+
+        AVLNode<E> left = node.left;
+        AVLNode<E> right = node.right;
+        if (left != null) {
+            left.parent = null;
         }
 
-        AVLNode.setNext(left, min);
-        AVLNode.setPrev(right, max);
+        if (right != null) {
+            right.parent = null;
+        }
+
+        int cmp = compare(value, node.value);
+        if (cmp < 0 || cmp == 0 && !valueLeft) {
+            List<AVLNode<E>> res = splitNodes(left, value, valueLeft);
+            res.set(1, AVLNode.joinWithRoot(res.get(1), node, right));
+            return res;
+        }
 
-        AVLNode.setRight(left, null);
-        AVLNode.setLeft(right, null);
-        List<AVLNode<E>> res = new ArrayList<>();
-        res.add(AVLNode.balanceBranch(left));
-        res.add(AVLNode.balanceBranch(right));
+        List<AVLNode<E>> res = splitNodes(right, value, valueLeft);
+        res.set(0, AVLNode.joinWithRoot(left, node, res.get(0)));
         return res;
     }
 
     private class Itr implements Iterator<E> {
-        AVLNode<E> start = AVLNode.findMin(head);
-        AVLNode<E> next = start;
+        final boolean descending;
+        AVLNode<E> next;
+        AVLNode<E> last;
 
+        int remaining;
         int startingSize = AVLTree.this.size();
         int moveCount;
+        int expectedModCount = modCount;
 
-        boolean moved;
+        Itr(boolean descending) {
+            this.descending = descending;
+            this.next = descending ? AVLNode.findMax(head) : AVLNode.findMin(head);
+            this.remaining = AVLNode.getMultiplicity(next);
+        }
 
         @Override
         public boolean hasNext() {
@@ -313,30 +886,42 @@ public class AVLTree<E> extends AbstractCollection<E> implements Collection<E> {
 
         @Override
         public E next() {
+            checkForComodification();
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
 
-            next = next.next;
+            while (remaining == 0) {
+                next = descending ? next.prev : next.next;
+                remaining = AVLNode.getMultiplicity(next);
+            }
+
+            --remaining;
             ++moveCount;
-            moved = true;
-            return next.prev.value;
+            last = next;
+            return last.value;
         }
 
         @Override
         public void remove() {
-            if (!moved) {
+            if (last == null) {
                 throw new IllegalStateException();
             }
 
-            if (next != null) {
-                head = AVLTree.this.remove(head, next.prev.value);
-            }
-            else {
-                head = null;
+            checkForComodification();
+            removeNode(last);
+            if (changeLog != null) {
+                changeLog.remove(last.value, 1);
             }
 
-            moved = false;
+            last = null;
+            expectedModCount = modCount;
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
         }
     }
 }
@@ -0,0 +1,55 @@
+package avltree;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+// Exports a tree's footprint over JMX. Trees are not thread-safe, so the JMX threads only see what the owner
+// last published with refresh, which takes constant time and can run after every batch of updates
+public class AVLTreeMetrics implements AVLTreeMetricsMXBean {
+    private final AVLTree<?> tree;
+    private volatile long estimatedBytes;
+    private volatile int size;
+    private volatile int nodeCount;
+
+    public AVLTreeMetrics(AVLTree<?> tree) {
+        this.tree = tree;
+        refresh();
+    }
+
+    // Must run on the thread that owns the tree
+    public void refresh() {
+        estimatedBytes = tree.estimatedBytes();
+        size = tree.size();
+        nodeCount = tree.nodeCount();
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("avltree:type=AVLTree,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    public static void unregister(ObjectName objectName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package avltree;
+
+public interface AVLTreeMetricsMXBean {
+    long getEstimatedBytes();
+
+    int getSize();
+
+    int getNodeCount();
+}
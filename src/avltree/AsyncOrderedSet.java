@@ -0,0 +1,179 @@
+package avltree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Flat combining: callers only enqueue, and whichever caller wins the flag applies everybody's requests
+// as one key-sorted batch. No monitor is ever held, so parked virtual threads are not pinned. It is a set
+// whatever the tree: adding a key the tree already holds leaves it alone and yields false
+public class AsyncOrderedSet<E> {
+    public static final int DEFAULT_MAX_BATCH = 1 << 10;
+
+    // Batches one caller combines before it hands the rest of the queue to the executor and returns
+    static final int MAX_PASSES = 8;
+
+    private enum Op {
+        CONTAINS, ADD, REMOVE
+    }
+
+    private static final class Request<E> {
+        final Op op;
+        final E key;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        // Filled in by the combiner, handed to result once the batch is out of the critical section
+        boolean value;
+        RuntimeException failure;
+
+        Request(Op op, E key) {
+            this.op = op;
+            this.key = key;
+        }
+
+        void complete() {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            }
+            else {
+                result.complete(value);
+            }
+        }
+    }
+
+    final AVLTree<E> tree;
+    private final int maxBatch;
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Request<E>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean combining = new AtomicBoolean();
+
+    public AsyncOrderedSet(AVLTree<E> tree) {
+        this(tree, DEFAULT_MAX_BATCH);
+    }
+
+    public AsyncOrderedSet(AVLTree<E> tree, int maxBatch) {
+        this(tree, maxBatch, ForkJoinPool.commonPool());
+    }
+
+    public AsyncOrderedSet(AVLTree<E> tree, int maxBatch, Executor executor) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException();
+        }
+
+        if (executor == null) {
+            throw new NullPointerException();
+        }
+
+        this.tree = tree;
+        this.maxBatch = maxBatch;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<Boolean> contains(E e) {
+        return submit(Op.CONTAINS, e);
+    }
+
+    public CompletableFuture<Boolean> add(E e) {
+        return submit(Op.ADD, e);
+    }
+
+    public CompletableFuture<Boolean> remove(E e) {
+        return submit(Op.REMOVE, e);
+    }
+
+    private CompletableFuture<Boolean> submit(Op op, E key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+
+        Request<E> request = new Request<>(op, key);
+        queue.add(request);
+        combine();
+        return request.result;
+    }
+
+    // Futures are completed only after the flag is released: a stage chained on one runs on this thread and
+    // may wait on another request, which it could never get combined while the flag is held. The queue is
+    // checked again after the flag is released so a request enqueued meanwhile is never stranded, and under
+    // sustained load the caller hands the queue over to the executor after MAX_PASSES batches
+    private void combine() {
+        for (int pass = 0; !queue.isEmpty(); ++pass) {
+            if (pass == MAX_PASSES) {
+                executor.execute(this::combine);
+                return;
+            }
+
+            if (!combining.compareAndSet(false, true)) {
+                return;
+            }
+
+            List<Request<E>> batch;
+            try {
+                batch = drain();
+                apply(batch);
+            }
+            finally {
+                combining.set(false);
+            }
+
+            for (Request<E> request : batch) {
+                request.complete();
+            }
+        }
+    }
+
+    private List<Request<E>> drain() {
+        List<Request<E>> batch = new ArrayList<>();
+        Request<E> request;
+        while (batch.size() < maxBatch && (request = queue.poll()) != null) {
+            batch.add(request);
+        }
+
+        // Stable, so requests for the same key keep their arrival order. Keys the comparator rejects leave the
+        // batch unsorted and fail one by one when applied
+        List<Request<E>> sorted = new ArrayList<>(batch);
+        try {
+            sorted.sort((a, b) -> tree.compare(a.key, b.key));
+            return sorted;
+        }
+        catch (RuntimeException e) {
+            return batch;
+        }
+    }
+
+    private void apply(List<Request<E>> batch) {
+        Request<E> lastRead = null;
+        for (Request<E> request : batch) {
+            try {
+                switch (request.op) {
+                    case CONTAINS:
+                        // Reads of the same key with no write in between share one lookup
+                        if (lastRead != null && tree.compare(lastRead.key, request.key) == 0) {
+                            request.value = lastRead.value;
+                            continue;
+                        }
+
+                        request.value = tree.contains(request.key);
+                        lastRead = request;
+                        break;
+                    case ADD:
+                        request.value = !tree.contains(request.key) && tree.add(request.key);
+                        lastRead = null;
+                        break;
+                    case REMOVE:
+                        request.value = tree.remove(request.key);
+                        lastRead = null;
+                        break;
+                }
+            }
+            catch (RuntimeException e) {
+                request.failure = e;
+                lastRead = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,788 @@
+package avltree;
+
+import java.util.*;
+
+public class BPlusTree<E> extends AbstractCollection<E> implements OrderedCollection<E> {
+    public static final int DEFAULT_NODE_CAPACITY = 64;
+    public static final int MIN_NODE_CAPACITY = 4;
+
+    private Comparator<? super E> comparator;
+    int keyKind;
+    private final int nodeCapacity;
+
+    Node root;
+    transient int modCount;
+
+    // Leaves hold the elements, inner nodes hold the minimum of every child next to the child itself
+    static final class Node {
+        final Object[] keys;
+        final Node[] children;
+        int count;
+        int size;
+
+        Node(int capacity, boolean leaf) {
+            this.keys = new Object[capacity];
+            this.children = leaf ? null : new Node[capacity];
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+    }
+
+    public BPlusTree() {
+        this(new ComparableComparator<>());
+    }
+
+    public BPlusTree(Comparator<? super E> comparator) {
+        this(comparator, DEFAULT_NODE_CAPACITY);
+    }
+
+    public BPlusTree(Comparator<? super E> comparator, int nodeCapacity) {
+        if (nodeCapacity < MIN_NODE_CAPACITY) {
+            throw new IllegalArgumentException();
+        }
+
+        this.setComparator(comparator);
+        this.nodeCapacity = nodeCapacity;
+    }
+
+    public BPlusTree(Collection<? extends E> c) {
+        this(c, new ComparableComparator<>());
+    }
+
+    public BPlusTree(Collection<? extends E> c, Comparator<? super E> comparator) {
+        this(comparator);
+        this.addAll(c);
+    }
+
+    // Trees made from another's nodes hold the same keys, so they start with its key kind
+    private BPlusTree(Node root, Comparator<? super E> comparator, int nodeCapacity, int keyKind) {
+        this(comparator, nodeCapacity);
+        this.keyKind = ComparableComparator.merge(this.keyKind, keyKind);
+        this.root = normalize(root);
+    }
+
+    public Comparator<? super E> getComparator() {
+        return comparator;
+    }
+
+    public void setComparator(Comparator<? super E> comparator) {
+        this.comparator = comparator;
+        this.keyKind = ComparableComparator.keyKind(comparator);
+    }
+
+    public int getNodeCapacity() {
+        return nodeCapacity;
+    }
+
+    public int size() {
+        return root == null ? 0 : root.size;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        ++modCount;
+    }
+
+    public static <E> BPlusTree<E> join(BPlusTree<E> left, BPlusTree<E> right) {
+        if (left == null) {
+            return right != null ? right : new BPlusTree<>();
+        }
+
+        if (right == null) {
+            return left;
+        }
+
+        if (left.nodeCapacity != right.nodeCapacity) {
+            throw new IllegalArgumentException();
+        }
+
+        BPlusTree<E> res = new BPlusTree<>(left.join(left.root, right.root), left.comparator, left.nodeCapacity,
+                ComparableComparator.merge(left.keyKind, right.keyKind));
+        left.root = null;
+        right.root = null;
+        ++left.modCount;
+        ++right.modCount;
+        return res;
+    }
+
+    public List<BPlusTree<E>> split(E value, boolean valueLeft) {
+        Node[] parts = root == null ? new Node[2] : splitAt(root, rank(value, valueLeft));
+        root = null;
+        ++modCount;
+
+        List<BPlusTree<E>> res = new ArrayList<>();
+        res.add(new BPlusTree<>(parts[0], comparator, nodeCapacity, keyKind));
+        res.add(new BPlusTree<>(parts[1], comparator, nodeCapacity, keyKind));
+        return res;
+    }
+
+    public void retainInterval(E min, E max, boolean minOpen, boolean maxOpen) {
+        if (min == null || max == null) {
+            throw new NullPointerException();
+        }
+
+        if (root == null) {
+            return;
+        }
+
+        int from = rank(min, minOpen);
+        int to = rank(max, !maxOpen);
+        if (compare(min, max) > 0) {
+            // Same layout as AVLTree: the tail starting at min is followed by the head ending at max
+            Node[] minParts = splitAt(root, from);
+            Node[] maxParts = minParts[0] == null ? new Node[2] : splitAt(minParts[0], to);
+            root = normalize(join(minParts[1], maxParts[0]));
+            ++modCount;
+            return;
+        }
+
+        if (from >= to) {
+            root = null;
+            ++modCount;
+            return;
+        }
+
+        removeRange(to, size());
+        removeRange(0, from);
+    }
+
+    public void retainSegment(E min, E max) {
+        this.retainInterval(min, max, false, false);
+    }
+
+    public void retainInterval(E min, E max) {
+        this.retainInterval(min, max, true, true);
+    }
+
+    public void removeInterval(E min, E max, boolean minOpen, boolean maxOpen) {
+        if (min == null || max == null) {
+            throw new NullPointerException();
+        }
+
+        if (compare(min, max) > 0) {
+            retainInterval(max, min, !maxOpen, !minOpen);
+            return;
+        }
+
+        if (root != null) {
+            removeRange(rank(min, minOpen), rank(max, !maxOpen));
+        }
+    }
+
+    public void removeSegment(E min, E max) {
+        this.removeInterval(min, max, false, false);
+    }
+
+    public void removeInterval(E min, E max) {
+        this.removeInterval(min, max, true, true);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null || root == null) {
+            return false;
+        }
+
+        try {
+            @SuppressWarnings("unchecked")
+            E e = (E) o;
+            Node node = root;
+            while (!node.isLeaf()) {
+                node = node.children[childIndex(node, e, true)];
+            }
+
+            int i = search(node, e, false);
+            return i < node.count && compare(e, node.keys[i]) == 0;
+        }
+        catch (ClassCastException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null || root == null) {
+            return false;
+        }
+
+        try {
+            @SuppressWarnings("unchecked")
+            E e = (E) o;
+            if (!remove(root, e)) {
+                return false;
+            }
+
+            root = normalize(root);
+            ++modCount;
+            return true;
+        }
+        catch (ClassCastException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean add(E e) {
+        if (keyKind != ComparableComparator.CUSTOM) {
+            if (e == null) {
+                throw new NullPointerException();
+            }
+
+            if (keyKind == ComparableComparator.NATURAL) {
+                keyKind = ComparableComparator.keyKind(e.getClass());
+            }
+        }
+
+        if (root == null) {
+            root = new Node(nodeCapacity, true);
+        }
+
+        Node sibling = insert(root, e);
+        if (sibling != null) {
+            root = parentOf(root, sibling);
+        }
+
+        ++modCount;
+        return true;
+    }
+
+    public E get(int index) {
+        if (index < 0 || index >= this.size()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        Node node = root;
+        while (!node.isLeaf()) {
+            int i = 0;
+            while (index >= node.children[i].size) {
+                index -= node.children[i].size;
+                ++i;
+            }
+
+            node = node.children[i];
+        }
+
+        return key(node, index);
+    }
+
+    // Number of elements less than value, or not greater than value when inclusive
+    int rank(E value, boolean inclusive) {
+        int res = 0;
+        Node node = root;
+        while (node != null && !node.isLeaf()) {
+            int i = childIndex(node, value, inclusive);
+            for (int j = 0; j < i; ++j) {
+                res += node.children[j].size;
+            }
+
+            node = node.children[i];
+        }
+
+        return node == null ? res : res + search(node, value, inclusive);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E key(Node node, int i) {
+        return (E) node.keys[i];
+    }
+
+    private int compare(E value, Object key) {
+        if (keyKind != ComparableComparator.CUSTOM) {
+            return ComparableComparator.compare(keyKind, value, key);
+        }
+
+        @SuppressWarnings("unchecked")
+        int res = comparator.compare(value, (E) key);
+        return res;
+    }
+
+    // Number of keys in the node less than value, or not greater than value when inclusive
+    private int search(Node node, E value, boolean inclusive) {
+        int lo = 0;
+        int hi = node.count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(value, node.keys[mid]);
+            if (cmp > 0 || cmp == 0 && inclusive) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    private int childIndex(Node node, E value, boolean inclusive) {
+        return Math.max(search(node, value, inclusive) - 1, 0);
+    }
+
+    private Node insert(Node node, E value) {
+        if (node.isLeaf()) {
+            return insertAt(node, search(node, value, true), value, null);
+        }
+
+        int i = childIndex(node, value, true);
+        Node child = node.children[i];
+        Node sibling = insert(child, value);
+        node.size++;
+        node.keys[i] = child.keys[0];
+        return sibling == null ? null : insertAt(node, i + 1, sibling.keys[0], sibling);
+    }
+
+    // Inserts the key (and the child for inner nodes) at pos, returning the new right sibling if the node had to split
+    private Node insertAt(Node node, int pos, Object key, Node child) {
+        Node sibling = null;
+        Node target = node;
+        if (node.count == nodeCapacity) {
+            sibling = new Node(nodeCapacity, node.isLeaf());
+            moveRight(node, sibling, node.count / 2);
+            if (pos > node.count) {
+                pos -= node.count;
+                target = sibling;
+            }
+        }
+
+        System.arraycopy(target.keys, pos, target.keys, pos + 1, target.count - pos);
+        target.keys[pos] = key;
+        if (child != null) {
+            System.arraycopy(target.children, pos, target.children, pos + 1, target.count - pos);
+            target.children[pos] = child;
+        }
+
+        target.count++;
+        if (target.isLeaf()) {
+            target.size++;
+        }
+        else if (sibling != null) {
+            target.size += child.size;
+        }
+
+        return sibling;
+    }
+
+    private boolean remove(Node node, E value) {
+        if (node.isLeaf()) {
+            int i = search(node, value, false);
+            if (i == node.count || compare(value, node.keys[i]) != 0) {
+                return false;
+            }
+
+            System.arraycopy(node.keys, i + 1, node.keys, i, node.count - i - 1);
+            node.keys[--node.count] = null;
+            node.size--;
+            return true;
+        }
+
+        int i = childIndex(node, value, true);
+        if (!remove(node.children[i], value)) {
+            return false;
+        }
+
+        node.size--;
+        fixChild(node, i);
+        return true;
+    }
+
+    private void removeRange(int from, int to) {
+        if (from < to) {
+            removeRange(root, from, to);
+            root = normalize(root);
+            ++modCount;
+        }
+    }
+
+    private void removeRange(Node node, int from, int to) {
+        if (node.isLeaf()) {
+            System.arraycopy(node.keys, to, node.keys, from, node.count - to);
+            Arrays.fill(node.keys, node.count - (to - from), node.count, null);
+            node.count -= to - from;
+            node.size = node.count;
+            return;
+        }
+
+        int kept = 0;
+        int offset = 0;
+        for (int i = 0; i < node.count; ++i) {
+            Node child = node.children[i];
+            int childFrom = Math.max(from - offset, 0);
+            int childTo = Math.min(to - offset, child.size);
+            offset += child.size;
+
+            if (childFrom == 0 && childTo == child.size) {
+                continue;
+            }
+
+            if (childFrom < childTo) {
+                removeRange(child, childFrom, childTo);
+            }
+
+            node.children[kept++] = child;
+        }
+
+        Arrays.fill(node.children, kept, node.count, null);
+        Arrays.fill(node.keys, kept, node.count, null);
+        node.count = kept;
+        refresh(node);
+
+        for (int i = node.count - 1; i >= 0; --i) {
+            if (i < node.count) {
+                fixChild(node, i);
+            }
+        }
+    }
+
+    // Merges an underfull child with a neighbour or borrows from it
+    private void fixChild(Node node, int i) {
+        Node child = node.children[i];
+        if (child.count == 0) {
+            removeChild(node, i);
+            return;
+        }
+
+        node.keys[i] = child.keys[0];
+        if (child.count >= nodeCapacity / 2 || node.count == 1) {
+            return;
+        }
+
+        int left = i > 0 ? i - 1 : i;
+        Node a = node.children[left];
+        Node b = node.children[left + 1];
+        if (a.count + b.count <= nodeCapacity) {
+            moveLeft(a, b, b.count);
+            removeChild(node, left + 1);
+        }
+        else {
+            redistribute(a, b);
+            node.keys[left + 1] = b.keys[0];
+        }
+
+        node.keys[left] = a.keys[0];
+    }
+
+    private static void removeChild(Node node, int i) {
+        System.arraycopy(node.keys, i + 1, node.keys, i, node.count - i - 1);
+        System.arraycopy(node.children, i + 1, node.children, i, node.count - i - 1);
+        --node.count;
+        node.keys[node.count] = null;
+        node.children[node.count] = null;
+    }
+
+    private static void refresh(Node node) {
+        if (node.isLeaf()) {
+            node.size = node.count;
+            return;
+        }
+
+        int size = 0;
+        for (int i = 0; i < node.count; ++i) {
+            node.keys[i] = node.children[i].keys[0];
+            size += node.children[i].size;
+        }
+
+        node.size = size;
+    }
+
+    // Moves the first n entries of b to the end of a
+    private static void moveLeft(Node a, Node b, int n) {
+        System.arraycopy(b.keys, 0, a.keys, a.count, n);
+        System.arraycopy(b.keys, n, b.keys, 0, b.count - n);
+        Arrays.fill(b.keys, b.count - n, b.count, null);
+        if (!a.isLeaf()) {
+            System.arraycopy(b.children, 0, a.children, a.count, n);
+            System.arraycopy(b.children, n, b.children, 0, b.count - n);
+            Arrays.fill(b.children, b.count - n, b.count, null);
+        }
+
+        a.count += n;
+        b.count -= n;
+        refresh(a);
+        refresh(b);
+    }
+
+    // Moves the last entries of a starting at position from to the front of b
+    private static void moveRight(Node a, Node b, int from) {
+        int n = a.count - from;
+        System.arraycopy(b.keys, 0, b.keys, n, b.count);
+        System.arraycopy(a.keys, from, b.keys, 0, n);
+        Arrays.fill(a.keys, from, a.count, null);
+        if (!a.isLeaf()) {
+            System.arraycopy(b.children, 0, b.children, n, b.count);
+            System.arraycopy(a.children, from, b.children, 0, n);
+            Arrays.fill(a.children, from, a.count, null);
+        }
+
+        a.count -= n;
+        b.count += n;
+        refresh(a);
+        refresh(b);
+    }
+
+    private static void redistribute(Node a, Node b) {
+        int target = (a.count + b.count) / 2;
+        if (a.count < target) {
+            moveLeft(a, b, target - a.count);
+        }
+        else if (a.count > target) {
+            moveRight(a, b, target);
+        }
+    }
+
+    private Node parentOf(Node left, Node right) {
+        Node res = new Node(nodeCapacity, false);
+        res.children[0] = left;
+        res.children[1] = right;
+        res.count = 2;
+        refresh(res);
+        return res;
+    }
+
+    private static Node normalize(Node node) {
+        while (node != null && (node.count == 0 || !node.isLeaf() && node.count == 1)) {
+            node = node.count == 0 ? null : node.children[0];
+        }
+
+        return node;
+    }
+
+    private static int height(Node node) {
+        int res = 1;
+        while (!node.isLeaf()) {
+            node = node.children[0];
+            ++res;
+        }
+
+        return res;
+    }
+
+    // Concatenates two subtrees whose leaves may lie on different levels
+    private Node join(Node left, Node right) {
+        left = normalize(left);
+        right = normalize(right);
+        if (left == null) {
+            return right;
+        }
+
+        if (right == null) {
+            return left;
+        }
+
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        if (leftHeight == rightHeight) {
+            if (left.count + right.count <= nodeCapacity) {
+                moveLeft(left, right, right.count);
+                return left;
+            }
+
+            redistribute(left, right);
+            return parentOf(left, right);
+        }
+
+        if (leftHeight > rightHeight) {
+            Node sibling = joinRight(left, leftHeight, right, rightHeight);
+            return sibling == null ? left : parentOf(left, sibling);
+        }
+
+        Node sibling = joinLeft(right, rightHeight, left, leftHeight);
+        return sibling == null ? right : parentOf(right, sibling);
+    }
+
+    // Hangs the lower tree off the right spine of node, returning the split-off sibling of node if it overflowed
+    private Node joinRight(Node node, int height, Node lower, int lowerHeight) {
+        Node last = node.children[node.count - 1];
+        Node sibling;
+        if (height - 1 == lowerHeight) {
+            if (last.count + lower.count <= nodeCapacity) {
+                moveLeft(last, lower, lower.count);
+                sibling = null;
+            }
+            else {
+                redistribute(last, lower);
+                sibling = lower;
+            }
+        }
+        else {
+            sibling = joinRight(last, height - 1, lower, lowerHeight);
+        }
+
+        Node overflow = sibling == null ? null : insertAt(node, node.count, sibling.keys[0], sibling);
+        refresh(node);
+        if (overflow != null) {
+            refresh(overflow);
+        }
+
+        return overflow;
+    }
+
+    // Hangs the lower tree off the left spine of node, returning the split-off sibling of node if it overflowed
+    private Node joinLeft(Node node, int height, Node lower, int lowerHeight) {
+        Node first = node.children[0];
+        Node overflow;
+        if (height - 1 == lowerHeight) {
+            if (lower.count + first.count <= nodeCapacity) {
+                moveLeft(lower, first, first.count);
+                node.children[0] = lower;
+                overflow = null;
+            }
+            else {
+                redistribute(lower, first);
+                overflow = insertAt(node, 0, lower.keys[0], lower);
+            }
+        }
+        else {
+            Node sibling = joinLeft(first, height - 1, lower, lowerHeight);
+            overflow = sibling == null ? null : insertAt(node, 1, sibling.keys[0], sibling);
+        }
+
+        refresh(node);
+        if (overflow != null) {
+            refresh(overflow);
+        }
+
+        return overflow;
+    }
+
+    // Splits the subtree into its first k elements and the rest, reusing the nodes of the original
+    private Node[] splitAt(Node node, int k) {
+        if (node.isLeaf()) {
+            Node right = new Node(nodeCapacity, true);
+            moveRight(node, right, k);
+            return new Node[] { normalize(node), normalize(right) };
+        }
+
+        int i = 0;
+        while (i < node.count - 1 && k >= node.children[i].size) {
+            k -= node.children[i].size;
+            ++i;
+        }
+
+        Node[] parts = splitAt(node.children[i], k);
+        Node left = slice(node, 0, i);
+        Node right = slice(node, i + 1, node.count);
+        return new Node[] { join(left, parts[0]), join(parts[1], right) };
+    }
+
+    private Node slice(Node node, int from, int to) {
+        if (from == to) {
+            return null;
+        }
+
+        if (to - from == 1) {
+            return node.children[from];
+        }
+
+        Node res = new Node(nodeCapacity, false);
+        System.arraycopy(node.children, from, res.children, 0, to - from);
+        res.count = to - from;
+        refresh(res);
+        return res;
+    }
+
+    private class Itr implements Iterator<E> {
+        Node[] path;
+        int[] slots;
+        int depth;
+
+        int index;
+        int lastReturned = -1;
+        int expectedModCount = modCount;
+
+        Itr() {
+            seek(0);
+        }
+
+        private void seek(int rank) {
+            index = rank;
+            if (rank >= size()) {
+                return;
+            }
+
+            path = new Node[height(root)];
+            slots = new int[path.length];
+            Node node = root;
+            for (depth = 0; ; ++depth) {
+                path[depth] = node;
+                if (node.isLeaf()) {
+                    slots[depth] = rank;
+                    return;
+                }
+
+                int i = 0;
+                while (rank >= node.children[i].size) {
+                    rank -= node.children[i].size;
+                    ++i;
+                }
+
+                slots[depth] = i;
+                node = node.children[i];
+            }
+        }
+
+        private void advance() {
+            if (++slots[depth] < path[depth].count) {
+                return;
+            }
+
+            int d = depth - 1;
+            while (d >= 0 && ++slots[d] >= path[d].count) {
+                --d;
+            }
+
+            if (d < 0) {
+                return;
+            }
+
+            for (++d; d <= depth; ++d) {
+                path[d] = path[d - 1].children[slots[d - 1]];
+                slots[d] = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < size();
+        }
+
+        @Override
+        public E next() {
+            checkForComodification();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            E res = key(path[depth], slots[depth]);
+            lastReturned = index++;
+            advance();
+            return res;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned < 0) {
+                throw new IllegalStateException();
+            }
+
+            checkForComodification();
+            removeRange(lastReturned, lastReturned + 1);
+            seek(lastReturned);
+            lastReturned = -1;
+            expectedModCount = modCount;
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+}
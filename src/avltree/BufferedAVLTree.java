@@ -0,0 +1,570 @@
+package avltree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// Absorbs writes into two small sorted buffers, elements to insert and tree elements to delete, and merges
+// them into the nodes in one pass once they fill up. Reads combine the buffers with the tree on the fly.
+// A bigger buffer means fewer descents and rotations per write but more work in get and contains
+public class BufferedAVLTree<E> extends AVLTree<E> {
+    public static final int DEFAULT_BUFFER_CAPACITY = 64;
+
+    private int bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+
+    Object[] inserts = new Object[DEFAULT_BUFFER_CAPACITY];
+    int insertCount;
+
+    // Every element here has a copy in the tree that is already gone for readers
+    Object[] deletes = new Object[DEFAULT_BUFFER_CAPACITY];
+    int deleteCount;
+
+    public BufferedAVLTree() {
+        super();
+    }
+
+    public BufferedAVLTree(Comparator<? super E> comparator) {
+        super(comparator);
+    }
+
+    public BufferedAVLTree(AVLNode<E> head, Comparator<? super E> comparator) {
+        super(head, comparator);
+    }
+
+    public BufferedAVLTree(Collection<? extends E> c) {
+        super();
+        this.addAll(c);
+    }
+
+    public BufferedAVLTree(Collection<? extends E> c, Comparator<? super E> comparator) {
+        super(comparator);
+        this.addAll(c);
+    }
+
+    public int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    public void setBufferCapacity(int bufferCapacity) {
+        if (bufferCapacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+
+        flush();
+        this.bufferCapacity = bufferCapacity;
+        inserts = new Object[bufferCapacity];
+        deletes = new Object[bufferCapacity];
+    }
+
+    public int getBufferedCount() {
+        return insertCount + deleteCount;
+    }
+
+    @Override
+    AVLTree<E> newTree(AVLNode<E> head) {
+        BufferedAVLTree<E> res = new BufferedAVLTree<>(head, getComparator());
+        res.setBufferCapacity(bufferCapacity);
+        return res;
+    }
+
+    @Override
+    void materialize() {
+        flush();
+    }
+
+    // Deletes go first since they refer to nodes already in the tree. A buffer that is large next to the tree
+    // is merged by relinking all nodes in one linear pass, a small one by finger operations in key order
+    public void flush() {
+        if (insertCount + deleteCount == 0) {
+            return;
+        }
+
+        ChangeLog<E> log = changeLog;
+        changeLog = null;
+        try {
+            if ((long) (insertCount + deleteCount) * 4 > super.size()) {
+                rebuild();
+            }
+            else {
+                AVLNode<E> finger = null;
+                for (int i = 0; i < deleteCount; ++i) {
+                    AVLNode<E> node = super.fingerFind(finger, key(deletes, i));
+                    finger = super.size() == 1 ? null : node.next;
+                    removeNode(node);
+                }
+
+                finger = null;
+                for (int i = 0; i < insertCount; ++i) {
+                    finger = super.fingerInsert(finger, key(inserts, i));
+                }
+            }
+        }
+        finally {
+            changeLog = log;
+        }
+
+        clearBuffers();
+        modified();
+    }
+
+    private void rebuild() {
+        List<AVLNode<E>> nodes = new ArrayList<>(this.size());
+        Iterator<AVLNode<E>> merged = new MergeItr(false).nodes();
+        while (merged.hasNext()) {
+            nodes.add(merged.next());
+        }
+
+        // build links the survivors again; the ones dropped for buffered deletes stay detached
+        if (head != null) {
+            AVLNode<E> node = head;
+            do {
+                AVLNode.detach(node);
+                node = node.next;
+            } while (node != head);
+        }
+
+        head = AVLNode.build(nodes);
+        for (int i = 0; i < deleteCount; ++i) {
+            nodeRemoved(key(deletes, i));
+        }
+
+        for (int i = 0; i < insertCount; ++i) {
+            nodeAdded(key(inserts, i));
+        }
+    }
+
+    private void clearBuffers() {
+        for (int i = 0; i < insertCount; ++i) {
+            inserts[i] = null;
+        }
+
+        for (int i = 0; i < deleteCount; ++i) {
+            deletes[i] = null;
+        }
+
+        insertCount = 0;
+        deleteCount = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E key(Object[] buffer, int index) {
+        return (E) buffer[index];
+    }
+
+    // Number of buffered elements less than value, or not greater than value when inclusive
+    private int bufferRank(Object[] buffer, int count, E value, boolean inclusive) {
+        int from = 0;
+        int to = count;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            int cmp = compare(value, key(buffer, mid));
+            if (cmp > 0 || cmp == 0 && inclusive) {
+                from = mid + 1;
+            }
+            else {
+                to = mid;
+            }
+        }
+
+        return from;
+    }
+
+    private static void insertAt(Object[] buffer, int count, int index, Object e) {
+        System.arraycopy(buffer, index, buffer, index + 1, count - index);
+        buffer[index] = e;
+    }
+
+    private static void removeAt(Object[] buffer, int count, int index) {
+        System.arraycopy(buffer, index + 1, buffer, index, count - index - 1);
+        buffer[count - 1] = null;
+    }
+
+    // The buffers are sorted whatever the tree's own order
+    @Override
+    void checkInvariants(boolean ordered) {
+        AVLInvariants.checkSlots(this, inserts, insertCount, true, false);
+        AVLInvariants.checkSlots(this, deletes, deleteCount, true, false);
+        super.checkInvariants(ordered);
+    }
+
+    @Override
+    public int size() {
+        return super.size() + insertCount - deleteCount;
+    }
+
+    @Override
+    int rank(E value, boolean inclusive) {
+        return super.rank(value, inclusive) - bufferRank(deletes, deleteCount, value, inclusive) +
+                bufferRank(inserts, insertCount, value, inclusive);
+    }
+
+    @Override
+    public boolean add(E e) {
+        checkKey(e);
+        // After equal keys, where the tree itself would put a later insert
+        insertAt(inserts, insertCount, bufferRank(inserts, insertCount, e, true), e);
+        ++insertCount;
+        modified();
+        if (changeLog != null) {
+            changeLog.add(e, 1);
+        }
+
+        if (insertCount + deleteCount >= bufferCapacity) {
+            flush();
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return count(o) > 0;
+    }
+
+    private int count(Object o) {
+        if (o == null) {
+            return 0;
+        }
+
+        try {
+            @SuppressWarnings("unchecked")
+            E e = (E) o;
+            return rank(e, true) - rank(e, false);
+        }
+        catch (ClassCastException e) {
+            return 0;
+        }
+    }
+
+    // A buffered insert is simply taken back; a tree element is only marked, which still costs a descent to
+    // make sure it is there
+    @Override
+    public boolean remove(Object o) {
+        if (count(o) == 0) {
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        E e = (E) o;
+        int index = bufferRank(inserts, insertCount, e, false);
+        if (index < insertCount && compare(e, key(inserts, index)) == 0) {
+            removeAt(inserts, insertCount, index);
+            --insertCount;
+        }
+        else {
+            insertAt(deletes, deleteCount, bufferRank(deletes, deleteCount, e, true), e);
+            ++deleteCount;
+        }
+
+        modified();
+        if (changeLog != null) {
+            changeLog.remove(e, 1);
+        }
+
+        if (insertCount + deleteCount >= bufferCapacity) {
+            flush();
+        }
+
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        clearBuffers();
+        super.clear();
+    }
+
+    @Override
+    public void setHead(AVLNode<E> head) {
+        clearBuffers();
+        super.setHead(head);
+    }
+
+    // The element at index is the smallest one, from the tree or the insert buffer, whose merged rank passes
+    // index. Both searches bisect, so this takes O(log^2 n) instead of a flush
+    @Override
+    public E get(int index) {
+        if (insertCount + deleteCount == 0) {
+            return super.get(index);
+        }
+
+        if (index < 0 || index >= this.size()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int from = 0;
+        int to = super.size();
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (rank(AVLNode.get(head, mid), true) > index) {
+                to = mid;
+            }
+            else {
+                from = mid + 1;
+            }
+        }
+
+        E res = from < super.size() ? AVLNode.get(head, from) : null;
+
+        from = 0;
+        to = insertCount;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (rank(key(inserts, mid), true) > index) {
+                to = mid;
+            }
+            else {
+                from = mid + 1;
+            }
+        }
+
+        if (from < insertCount && (res == null || compare(key(inserts, from), res) < 0)) {
+            res = key(inserts, from);
+        }
+
+        return res;
+    }
+
+    @Override
+    public List<E> select(int... ranks) {
+        if (insertCount + deleteCount == 0) {
+            return super.select(ranks);
+        }
+
+        List<E> res = new ArrayList<>(ranks.length);
+        for (int rank : ranks) {
+            res.add(this.get(rank));
+        }
+
+        return res;
+    }
+
+    @Override
+    public E ceilingCyclic(E value) {
+        return successorCyclic(value, false);
+    }
+
+    @Override
+    public E higherCyclic(E value) {
+        return successorCyclic(value, true);
+    }
+
+    private E successorCyclic(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+
+        if (this.isEmpty()) {
+            return null;
+        }
+
+        int index = rank(value, inclusive);
+        return this.get(index == this.size() ? 0 : index);
+    }
+
+    @Override
+    public List<AVLTree<E>> split(E value, boolean valueLeft) {
+        flush();
+        return super.split(value, valueLeft);
+    }
+
+    @Override
+    public void retainInterval(E min, E max, boolean minOpen, boolean maxOpen) {
+        flush();
+        super.retainInterval(min, max, minOpen, maxOpen);
+    }
+
+    @Override
+    public void removeInterval(E min, E max, boolean minOpen, boolean maxOpen) {
+        flush();
+        super.removeInterval(min, max, minOpen, maxOpen);
+    }
+
+    @Override
+    public AVLNode<E> fingerFind(AVLNode<E> finger, E value) {
+        flush();
+        return super.fingerFind(finger, value);
+    }
+
+    @Override
+    public AVLNode<E> fingerInsert(AVLNode<E> finger, E value) {
+        flush();
+        return super.fingerInsert(finger, value);
+    }
+
+    @Override
+    public AVLNode<E> fingerRemove(AVLNode<E> finger, E value) {
+        flush();
+        return super.fingerRemove(finger, value);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new MergeItr(false);
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return new MergeItr(true);
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return super.estimatedBytes() + bufferBytes();
+    }
+
+    // The AVLTree fields plus both buffers, their counts and the capacity
+    @Override
+    long shellBytes() {
+        return MemoryLayout.objectBytes(7, 4 * 4 + 8 + 3 * 4);
+    }
+
+    // Deletes point at keys the tree still holds, so only inserted keys are sized
+    private long bufferBytes() {
+        long res = MemoryLayout.referenceArrayBytes(inserts.length) + MemoryLayout.referenceArrayBytes(deletes.length);
+        if (getKeySizer() != null) {
+            for (int i = 0; i < insertCount; ++i) {
+                res += getKeySizer().applyAsLong(key(inserts, i));
+            }
+        }
+
+        return res;
+    }
+
+    // Walks the tree's thread and the insert buffer side by side, dropping one tree element per buffered delete.
+    // Equal keys come from the tree first, the same order a flush produces
+    private class MergeItr implements Iterator<E> {
+        final boolean descending;
+        AVLNode<E> node;
+        int treeRemaining;
+        int insertIndex;
+        int deleteIndex;
+
+        AVLNode<E> lastNode;
+        int lastInsert = -1;
+        int expectedModCount = modCount;
+
+        MergeItr(boolean descending) {
+            this.descending = descending;
+            this.node = descending ? AVLNode.findMax(head) : AVLNode.findMin(head);
+            this.treeRemaining = BufferedAVLTree.super.size();
+            this.insertIndex = descending ? insertCount - 1 : 0;
+            this.deleteIndex = descending ? deleteCount - 1 : 0;
+        }
+
+        private boolean hasInsert() {
+            return descending ? insertIndex >= 0 : insertIndex < insertCount;
+        }
+
+        private void skipDeleted() {
+            while (treeRemaining > 0 && (descending ? deleteIndex >= 0 : deleteIndex < deleteCount)) {
+                int cmp = compare(node.value, key(deletes, deleteIndex));
+                if (cmp != 0) {
+                    break;
+                }
+
+                node = descending ? node.prev : node.next;
+                --treeRemaining;
+                deleteIndex += descending ? -1 : 1;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            skipDeleted();
+            return treeRemaining > 0 || hasInsert();
+        }
+
+        private boolean nextFromTree() {
+            checkForComodification();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            if (treeRemaining == 0) {
+                return false;
+            }
+
+            if (!hasInsert()) {
+                return true;
+            }
+
+            int cmp = compare(node.value, key(inserts, insertIndex));
+            return descending ? cmp > 0 : cmp <= 0;
+        }
+
+        @Override
+        public E next() {
+            if (nextFromTree()) {
+                lastNode = node;
+                lastInsert = -1;
+                node = descending ? node.prev : node.next;
+                --treeRemaining;
+                return lastNode.value;
+            }
+
+            lastNode = null;
+            lastInsert = insertIndex;
+            insertIndex += descending ? -1 : 1;
+            return key(inserts, lastInsert);
+        }
+
+        // Buffered inserts become fresh nodes in order, which is all a rebuild needs
+        Iterator<AVLNode<E>> nodes() {
+            return new Iterator<AVLNode<E>>() {
+                @Override
+                public boolean hasNext() {
+                    return MergeItr.this.hasNext();
+                }
+
+                @Override
+                public AVLNode<E> next() {
+                    E e = MergeItr.this.next();
+                    return lastNode != null ? lastNode : new AVLNode<>(e);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (lastNode == null && lastInsert < 0) {
+                throw new IllegalStateException();
+            }
+
+            checkForComodification();
+            E e;
+            if (lastNode != null) {
+                e = lastNode.value;
+                removeNode(lastNode);
+            }
+            else {
+                e = key(inserts, lastInsert);
+                removeAt(inserts, insertCount, lastInsert);
+                --insertCount;
+                if (!descending) {
+                    --insertIndex;
+                }
+
+                modified();
+            }
+
+            if (changeLog != null) {
+                changeLog.remove(e, 1);
+            }
+
+            lastNode = null;
+            lastInsert = -1;
+            expectedModCount = modCount;
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+}
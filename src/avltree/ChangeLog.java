@@ -0,0 +1,234 @@
+package avltree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Ring buffer of tree mutations for replicas. The single writer never waits: slow subscribers are overrun
+// and told to resync from a snapshot instead, which the writer publishes on its own thread at its own pace
+public class ChangeLog<E> {
+    public static final int DEFAULT_CAPACITY = 1 << 12;
+
+    public enum Type {
+        ADD, REMOVE, RETAIN_INTERVAL, REMOVE_INTERVAL, JOIN, CLEAR, RESET
+    }
+
+    public static final class Change<E> {
+        public final long version;
+        public final Type type;
+        public final E first;
+        public final E second;
+        public final boolean firstOpen;
+        public final boolean secondOpen;
+        public final int count;
+        public final List<E> elements;
+
+        Change(long version, Type type, E first, E second, boolean firstOpen, boolean secondOpen, int count,
+               List<E> elements) {
+            this.version = version;
+            this.type = type;
+            this.first = first;
+            this.second = second;
+            this.firstOpen = firstOpen;
+            this.secondOpen = secondOpen;
+            this.count = count;
+            this.elements = elements;
+        }
+
+        public void applyTo(AVLTree<E> replica) {
+            switch (type) {
+                case ADD:
+                    if (replica instanceof AVLMultiset) {
+                        ((AVLMultiset<E>) replica).add(first, count);
+                    }
+                    else {
+                        for (int i = 0; i < count; ++i) {
+                            replica.add(first);
+                        }
+                    }
+                    break;
+                case REMOVE:
+                    if (replica instanceof AVLMultiset) {
+                        ((AVLMultiset<E>) replica).remove(first, count);
+                    }
+                    else {
+                        for (int i = 0; i < count; ++i) {
+                            replica.remove(first);
+                        }
+                    }
+                    break;
+                case RETAIN_INTERVAL:
+                    replica.retainInterval(first, second, firstOpen, secondOpen);
+                    break;
+                case REMOVE_INTERVAL:
+                    replica.removeInterval(first, second, firstOpen, secondOpen);
+                    break;
+                case JOIN:
+                    replica.joinElements(elements);
+                    break;
+                case CLEAR:
+                    replica.clear();
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return version + ": " + type + " " + first + " " + second;
+        }
+    }
+
+    // The source's elements as of version, copied by the writer so subscribers on other threads never read the tree
+    public static final class Snapshot<E> {
+        public final long version;
+        public final List<E> elements;
+
+        Snapshot(long version, List<E> elements) {
+            this.version = version;
+            this.elements = elements;
+        }
+    }
+
+    private final AtomicReferenceArray<Change<E>> ring;
+    private volatile long version;
+    private volatile Snapshot<E> latestSnapshot;
+
+    public ChangeLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ChangeLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.ring = new AtomicReferenceArray<>(capacity);
+    }
+
+    public int getCapacity() {
+        return ring.length();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Subscriber subscribe() {
+        return new Subscriber(version);
+    }
+
+    // Must run on the writer's thread, for example every so many changes; it costs the writer one copy of the
+    // source but never waits on a subscriber
+    public Snapshot<E> snapshot(Collection<? extends E> source) {
+        Snapshot<E> res = new Snapshot<>(version, Collections.unmodifiableList(new ArrayList<E>(source)));
+        latestSnapshot = res;
+        return res;
+    }
+
+    public Snapshot<E> getLatestSnapshot() {
+        return latestSnapshot;
+    }
+
+    void add(E e, int count) {
+        append(Type.ADD, e, null, false, false, count, null);
+    }
+
+    void remove(E e, int count) {
+        append(Type.REMOVE, e, null, false, false, count, null);
+    }
+
+    void retainInterval(E min, E max, boolean minOpen, boolean maxOpen) {
+        append(Type.RETAIN_INTERVAL, min, max, minOpen, maxOpen, 0, null);
+    }
+
+    void removeInterval(E min, E max, boolean minOpen, boolean maxOpen) {
+        append(Type.REMOVE_INTERVAL, min, max, minOpen, maxOpen, 0, null);
+    }
+
+    void join(Collection<? extends E> right) {
+        append(Type.JOIN, null, null, false, false, 0, Collections.unmodifiableList(new ArrayList<E>(right)));
+    }
+
+    void clear() {
+        append(Type.CLEAR, null, null, false, false, 0, null);
+    }
+
+    // For changes the log cannot describe: every subscriber has to resync
+    void reset() {
+        append(Type.RESET, null, null, false, false, 0, null);
+    }
+
+    private void append(Type type, E first, E second, boolean firstOpen, boolean secondOpen, int count,
+                        List<E> elements) {
+        long v = version;
+        Change<E> change = new Change<>(v, type, first, second, firstOpen, secondOpen, count, elements);
+        ring.set((int) (v % ring.length()), change);
+        version = v + 1;
+    }
+
+    public class Subscriber {
+        private long position;
+
+        Subscriber(long position) {
+            this.position = position;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public int lag() {
+            return (int) Math.min(version - position, Integer.MAX_VALUE);
+        }
+
+        // Moves up to max changes into res; false means the subscriber was overrun and must resync
+        public boolean poll(List<Change<E>> res, int max) {
+            long end = Math.min(version, position + max);
+            for (; position < end; ++position) {
+                Change<E> change = ring.get((int) (position % ring.length()));
+                if (change.version != position || change.type == Type.RESET) {
+                    return false;
+                }
+
+                res.add(change);
+            }
+
+            return true;
+        }
+
+        // Applies up to batchSize changes to the replica, returning how many, or -1 if it has to resync
+        public int applyTo(AVLTree<E> replica, int batchSize) {
+            List<Change<E>> batch = new ArrayList<>(Math.min(batchSize, ring.length()));
+            boolean inSync = poll(batch, batchSize);
+            for (Change<E> change : batch) {
+                change.applyTo(replica);
+            }
+
+            return inSync ? batch.size() : -1;
+        }
+
+        // Only for a subscriber on the writer's thread: the source must not change while the snapshot is taken
+        public void resync(AVLTree<E> replica, Collection<? extends E> snapshot) {
+            position = version;
+            rebuild(replica, snapshot);
+        }
+
+        // Safe from any thread. Replay goes on from the snapshot's version, so a snapshot the ring has since
+        // overrun makes the next applyTo return -1 again
+        public void resync(AVLTree<E> replica, Snapshot<E> snapshot) {
+            position = snapshot.version;
+            rebuild(replica, snapshot.elements);
+        }
+
+        private void rebuild(AVLTree<E> replica, Collection<? extends E> elements) {
+            AVLTree<E> tree = replica.newTree(null);
+            replica.shareKeyKind(tree);
+            tree.addAll(elements);
+            replica.setHead(tree.getHead());
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package avltree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// Starts as a sorted array searched by bisection and promotes itself to nodes past promoteThreshold elements.
+// It goes back to the array once it shrinks to demoteThreshold, so a size hovering around one bound does not
+// flip the representation on every operation. Operations without an array version build the nodes first
+public class CompactAVLTree<E> extends AVLTree<E> {
+    public static final int DEFAULT_PROMOTE_THRESHOLD = 32;
+    public static final int DEFAULT_DEMOTE_THRESHOLD = 16;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    int promoteThreshold = DEFAULT_PROMOTE_THRESHOLD;
+    int demoteThreshold = DEFAULT_DEMOTE_THRESHOLD;
+
+    // The elements in order while compact, null once promoted
+    Object[] keys = new Object[INITIAL_CAPACITY];
+    int count;
+
+    public CompactAVLTree() {
+        super();
+    }
+
+    public CompactAVLTree(Comparator<? super E> comparator) {
+        super(comparator);
+    }
+
+    public CompactAVLTree(AVLNode<E> head, Comparator<? super E> comparator) {
+        super(head, comparator);
+        if (head != null) {
+            keys = null;
+            demoteIfSmall();
+        }
+    }
+
+    public CompactAVLTree(Collection<? extends E> c) {
+        super();
+        this.addAll(c);
+    }
+
+    public CompactAVLTree(Collection<? extends E> c, Comparator<? super E> comparator) {
+        super(comparator);
+        this.addAll(c);
+    }
+
+    public int getPromoteThreshold() {
+        return promoteThreshold;
+    }
+
+    public int getDemoteThreshold() {
+        return demoteThreshold;
+    }
+
+    public void setThresholds(int promoteThreshold, int demoteThreshold) {
+        if (demoteThreshold < 0 || demoteThreshold >= promoteThreshold) {
+            throw new IllegalArgumentException();
+        }
+
+        this.promoteThreshold = promoteThreshold;
+        this.demoteThreshold = demoteThreshold;
+        if (keys != null && count > promoteThreshold) {
+            promote();
+        }
+        else {
+            demoteIfSmall();
+        }
+    }
+
+    public boolean isCompact() {
+        return keys != null;
+    }
+
+    @Override
+    AVLTree<E> newTree(AVLNode<E> head) {
+        CompactAVLTree<E> res = new CompactAVLTree<>(head, getComparator());
+        res.setThresholds(promoteThreshold, demoteThreshold);
+        return res;
+    }
+
+    @Override
+    void materialize() {
+        if (keys != null) {
+            promote();
+        }
+    }
+
+    private void promote() {
+        List<AVLNode<E>> nodes = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            nodes.add(new AVLNode<>(key(i)));
+        }
+
+        keys = null;
+        count = 0;
+        head = AVLNode.build(nodes);
+        recountKeys();
+        ++modCount;
+    }
+
+    private void demoteIfSmall() {
+        if (keys != null || this.size() > demoteThreshold) {
+            return;
+        }
+
+        Object[] res = new Object[Math.max(this.size(), INITIAL_CAPACITY)];
+        int n = 0;
+        if (head != null) {
+            AVLNode<E> start = AVLNode.findMin(head);
+            AVLNode<E> node = start;
+            do {
+                res[n++] = node.value;
+                AVLNode.detach(node);
+                node = node.next;
+            } while (node != start);
+        }
+
+        keys = res;
+        count = n;
+        head = null;
+        structureChanged();
+        ++modCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E key(int index) {
+        return (E) keys[index];
+    }
+
+    @Override
+    void checkInvariants(boolean ordered) {
+        if (keys == null) {
+            super.checkInvariants(ordered);
+            return;
+        }
+
+        if (head != null || count > promoteThreshold) {
+            throw new IllegalStateException("Compact tree holds " + count + " keys next to head " + head);
+        }
+
+        AVLInvariants.checkSlots(this, keys, count, ordered, true);
+    }
+
+    @Override
+    public int size() {
+        return keys != null ? count : super.size();
+    }
+
+    @Override
+    int rank(E value, boolean inclusive) {
+        if (keys == null) {
+            return super.rank(value, inclusive);
+        }
+
+        int from = 0;
+        int to = count;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            int cmp = compare(value, key(mid));
+            if (cmp > 0 || cmp == 0 && inclusive) {
+                from = mid + 1;
+            }
+            else {
+                to = mid;
+            }
+        }
+
+        return from;
+    }
+
+    @Override
+    public boolean add(E e) {
+        checkKey(e);
+        demoteIfSmall();
+        if (keys != null && count == promoteThreshold) {
+            promote();
+        }
+
+        if (keys == null) {
+            return super.add(e);
+        }
+
+        // Equal keys go after the ones already present, as in the node-based insert
+        int index = rank(e, true);
+        if (count == keys.length) {
+            keys = Arrays.copyOf(keys, Math.min(keys.length * 2, promoteThreshold));
+        }
+
+        System.arraycopy(keys, index, keys, index + 1, count - index);
+        keys[index] = e;
+        ++count;
+        modified();
+        if (changeLog != null) {
+            changeLog.add(e, 1);
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (keys == null) {
+            return super.contains(o);
+        }
+
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (keys == null) {
+            boolean res = super.remove(o);
+            demoteIfSmall();
+            return res;
+        }
+
+        int index = indexOf(o);
+        if (index < 0) {
+            return false;
+        }
+
+        E e = key(index);
+        removeAt(index);
+        if (changeLog != null) {
+            changeLog.remove(e, 1);
+        }
+
+        return true;
+    }
+
+    private int indexOf(Object o) {
+        if (o == null) {
+            return -1;
+        }
+
+        try {
+            @SuppressWarnings("unchecked")
+            E e = (E) o;
+            int index = rank(e, false);
+            return index < count && compare(e, key(index)) == 0 ? index : -1;
+        }
+        catch (ClassCastException e) {
+            return -1;
+        }
+    }
+
+    private void removeAt(int index) {
+        System.arraycopy(keys, index + 1, keys, index, count - index - 1);
+        keys[--count] = null;
+        modified();
+    }
+
+    @Override
+    public void clear() {
+        keys = new Object[INITIAL_CAPACITY];
+        count = 0;
+        super.clear();
+    }
+
+    @Override
+    public void setHead(AVLNode<E> head) {
+        keys = null;
+        count = 0;
+        super.setHead(head);
+        demoteIfSmall();
+    }
+
+    @Override
+    public E get(int index) {
+        if (keys == null) {
+            return super.get(index);
+        }
+
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        return key(index);
+    }
+
+    @Override
+    public List<E> select(int... ranks) {
+        if (keys == null) {
+            return super.select(ranks);
+        }
+
+        List<E> res = new ArrayList<>(ranks.length);
+        for (int rank : ranks) {
+            res.add(this.get(rank));
+        }
+
+        return res;
+    }
+
+    @Override
+    public E ceilingCyclic(E value) {
+        return keys != null ? successorInArray(value, false) : super.ceilingCyclic(value);
+    }
+
+    @Override
+    public E higherCyclic(E value) {
+        return keys != null ? successorInArray(value, true) : super.higherCyclic(value);
+    }
+
+    private E successorInArray(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+
+        if (count == 0) {
+            return null;
+        }
+
+        int index = rank(value, inclusive);
+        return key(index == count ? 0 : index);
+    }
+
+    @Override
+    public List<AVLTree<E>> split(E value, boolean valueLeft) {
+        if (keys == null) {
+            return super.split(value, valueLeft);
+        }
+
+        int index = rank(value, valueLeft);
+        List<AVLTree<E>> res = new ArrayList<>();
+        res.add(slice(0, index));
+        res.add(slice(index, count));
+
+        keys = new Object[INITIAL_CAPACITY];
+        count = 0;
+        modified();
+        if (changeLog != null) {
+            changeLog.clear();
+        }
+
+        for (AVLTree<E> tree : res) {
+            tree.setInvariantChecker(getInvariantChecker());
+            tree.modified();
+        }
+
+        return res;
+    }
+
+    private CompactAVLTree<E> slice(int from, int to) {
+        CompactAVLTree<E> res = new CompactAVLTree<>(getComparator());
+        shareKeyKind(res);
+        res.promoteThreshold = promoteThreshold;
+        res.demoteThreshold = demoteThreshold;
+        res.keys = new Object[Math.max(to - from, INITIAL_CAPACITY)];
+        System.arraycopy(keys, from, res.keys, 0, to - from);
+        res.count = to - from;
+        return res;
+    }
+
+    @Override
+    void joinElements(Collection<? extends E> elements) {
+        super.joinElements(elements);
+        demoteIfSmall();
+    }
+
+    // Small enough that going through the nodes costs no more than shifting the array
+    @Override
+    public void retainInterval(E min, E max, boolean minOpen, boolean maxOpen) {
+        materialize();
+        super.retainInterval(min, max, minOpen, maxOpen);
+        demoteIfSmall();
+    }
+
+    @Override
+    public void removeInterval(E min, E max, boolean minOpen, boolean maxOpen) {
+        materialize();
+        super.removeInterval(min, max, minOpen, maxOpen);
+        demoteIfSmall();
+    }
+
+    @Override
+    public AVLNode<E> fingerFind(AVLNode<E> finger, E value) {
+        materialize();
+        return super.fingerFind(finger, value);
+    }
+
+    @Override
+    public AVLNode<E> fingerInsert(AVLNode<E> finger, E value) {
+        materialize();
+        return super.fingerInsert(finger, value);
+    }
+
+    @Override
+    public AVLNode<E> fingerRemove(AVLNode<E> finger, E value) {
+        materialize();
+        return super.fingerRemove(finger, value);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return keys != null ? new ArrayItr(false) : super.iterator();
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return keys != null ? new ArrayItr(true) : super.descendingIterator();
+    }
+
+    // The array's spare slots are part of the footprint; key sizing walks at most promoteThreshold keys
+    @Override
+    public long estimatedBytes() {
+        return keys != null ? arrayBytes() : super.estimatedBytes();
+    }
+
+    // The AVLTree fields plus keys, count and both thresholds
+    @Override
+    long shellBytes() {
+        return MemoryLayout.objectBytes(6, 4 * 4 + 8 + 3 * 4);
+    }
+
+    private long arrayBytes() {
+        long res = shellBytes() + MemoryLayout.referenceArrayBytes(keys.length);
+        if (getKeySizer() != null) {
+            for (int i = 0; i < count; ++i) {
+                res += getKeySizer().applyAsLong(key(i));
+            }
+        }
+
+        return res;
+    }
+
+    private class ArrayItr implements Iterator<E> {
+        final boolean descending;
+        int cursor;
+        int last = -1;
+        int expectedModCount = modCount;
+
+        ArrayItr(boolean descending) {
+            this.descending = descending;
+            this.cursor = descending ? count - 1 : 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return descending ? cursor >= 0 : cursor < count;
+        }
+
+        @Override
+        public E next() {
+            checkForComodification();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            last = cursor;
+            cursor += descending ? -1 : 1;
+            return key(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+
+            checkForComodification();
+            E e = key(last);
+            removeAt(last);
+            if (changeLog != null) {
+                changeLog.remove(e, 1);
+            }
+
+            if (!descending) {
+                cursor = last;
+            }
+
+            last = -1;
+            expectedModCount = modCount;
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+}
@@ -3,6 +3,13 @@ package avltree;
 import java.util.Comparator;
 
 class ComparableComparator<E> implements Comparator<E> {
+    static final int CUSTOM = -1;
+    static final int NATURAL = 0;
+    static final int INTEGER = 1;
+    static final int LONG = 2;
+    static final int DOUBLE = 3;
+    static final int STRING = 4;
+
     public ComparableComparator() { }
 
     @Override
@@ -15,4 +22,52 @@ class ComparableComparator<E> implements Comparator<E> {
         int res = ((Comparable<E>) o1).compareTo(o2);
         return res;
     }
+
+    static int keyKind(Comparator<?> comparator) {
+        return comparator instanceof ComparableComparator ? NATURAL : CUSTOM;
+    }
+
+    static int keyKind(Class<?> type) {
+        if (type == Integer.class) {
+            return INTEGER;
+        }
+
+        if (type == Long.class) {
+            return LONG;
+        }
+
+        if (type == Double.class) {
+            return DOUBLE;
+        }
+
+        if (type == String.class) {
+            return STRING;
+        }
+
+        return NATURAL;
+    }
+
+    // The kind for a tree holding the keys of a tree of the other kind: whichever has seen a key wins
+    static int merge(int keyKind, int other) {
+        return keyKind == NATURAL && other != CUSTOM ? other : keyKind;
+    }
+
+    // A static switch instead of Comparator.compare keeps the call site monomorphic however many key types
+    // the JVM has seen; the trees reject null keys on entry so there is nothing to check here
+    static int compare(int keyKind, Object o1, Object o2) {
+        switch (keyKind) {
+            case INTEGER:
+                return Integer.compare((Integer) o1, (Integer) o2);
+            case LONG:
+                return Long.compare((Long) o1, (Long) o2);
+            case DOUBLE:
+                return Double.compare((Double) o1, (Double) o2);
+            case STRING:
+                return ((String) o1).compareTo((String) o2);
+            default:
+                @SuppressWarnings("unchecked")
+                int res = ((Comparable<Object>) o1).compareTo(o2);
+                return res;
+        }
+    }
 }
@@ -0,0 +1,171 @@
+package avltree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+// Removes by marking nodes dead (multiplicity zero) and compacts once the dead share passes the threshold
+public class LazyAVLTree<E> extends AVLTree<E> {
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    // Never less than the number of dead nodes; interval operations may drop some without noticing
+    int tombstones;
+
+    public LazyAVLTree() {
+        super();
+    }
+
+    public LazyAVLTree(Comparator<? super E> comparator) {
+        super(comparator);
+    }
+
+    public LazyAVLTree(AVLNode<E> head, Comparator<? super E> comparator) {
+        super(head, comparator);
+    }
+
+    public LazyAVLTree(Collection<? extends E> c) {
+        super(c);
+    }
+
+    public LazyAVLTree(Collection<? extends E> c, Comparator<? super E> comparator) {
+        super(c, comparator);
+    }
+
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    public void setCompactionThreshold(double compactionThreshold) {
+        if (!(compactionThreshold > 0 && compactionThreshold <= 1)) {
+            throw new IllegalArgumentException();
+        }
+
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public int getTombstoneCount() {
+        return tombstones;
+    }
+
+    @Override
+    AVLTree<E> newTree(AVLNode<E> head) {
+        LazyAVLTree<E> res = new LazyAVLTree<>(head, getComparator());
+        res.compactionThreshold = compactionThreshold;
+        res.tombstones = tombstones;
+        return res;
+    }
+
+    // Dead nodes hold no elements but still take their space
+    @Override
+    public int nodeCount() {
+        return countedNodes();
+    }
+
+    // The AVLTree fields plus compactionThreshold and tombstones
+    @Override
+    long shellBytes() {
+        return MemoryLayout.objectBytes(5, 4 * 4 + 8 + 8 + 4);
+    }
+
+    @Override
+    void checkInvariants(boolean ordered) {
+        int dead = 0;
+        for (AVLNode<E> node : AVLInvariants.checkNodes(this, ordered)) {
+            if (AVLNode.getMultiplicity(node) == 0) {
+                ++dead;
+            }
+        }
+
+        if (tombstones < dead) {
+            throw new IllegalStateException("Tombstone count below " + dead);
+        }
+    }
+
+    @Override
+    public AVLNode<E> find(AVLNode<E> p, E value) {
+        if (AVLNode.getNodeCount(p) == 0) {
+            return null;
+        }
+
+        int cmp = compare(value, p.value);
+        if (cmp < 0) {
+            return find(p.left, value);
+        }
+        else if (cmp > 0) {
+            return find(p.right, value);
+        }
+
+        if (AVLNode.getMultiplicity(p) > 0) {
+            return p;
+        }
+
+        // Equal keys may sit on both sides of a dead one
+        AVLNode<E> res = find(p.left, value);
+        return res != null ? res : find(p.right, value);
+    }
+
+    @Override
+    public AVLNode<E> remove(AVLNode<E> p, E value) {
+        AVLNode<E> node = find(p, value);
+        return node == null ? p : markDead(p, node);
+    }
+
+    @Override
+    void removeNode(AVLNode<E> node) {
+        head = markDead(head, node);
+        modified();
+    }
+
+    private AVLNode<E> markDead(AVLNode<E> p, AVLNode<E> node) {
+        AVLNode.setMultiplicity(node, 0);
+        AVLNode.updatePath(node.parent);
+        ++tombstones;
+
+        if (tombstones > compactionThreshold * (AVLNode.getNodeCount(p) + tombstones)) {
+            return compact(p);
+        }
+
+        return p;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        tombstones = 0;
+    }
+
+    public void compact() {
+        head = compact(head);
+        modified();
+    }
+
+    // Rebuilds the live nodes into a perfectly balanced tree in linear time. p is the root, which the new one
+    // replaces right away so the key bytes scale to the new node count
+    private AVLNode<E> compact(AVLNode<E> p) {
+        tombstones = 0;
+        AVLNode<E> start = AVLNode.findMin(p);
+        if (start == null) {
+            return null;
+        }
+
+        List<AVLNode<E>> live = new ArrayList<>(AVLNode.getNodeCount(p));
+        AVLNode<E> node = start;
+        do {
+            if (AVLNode.getMultiplicity(node) > 0) {
+                live.add(node);
+            }
+            else {
+                AVLNode.detach(node);
+            }
+
+            node = node.next;
+        } while (node != start);
+
+        head = AVLNode.build(live);
+        structureChanged();
+        return head;
+    }
+}
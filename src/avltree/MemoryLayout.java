@@ -0,0 +1,30 @@
+package avltree;
+
+// Shallow object sizes following HotSpot's layout: a header, the fields, then padding to 8 bytes. Compressed
+// references are assumed below 32 GB of heap, which is when HotSpot turns them on by default
+final class MemoryLayout {
+    static final boolean IS_64_BIT = !"32".equals(System.getProperty("sun.arch.data.model"));
+    static final boolean COMPRESSED_OOPS = IS_64_BIT && Runtime.getRuntime().maxMemory() < 32L << 30;
+
+    static final int REFERENCE_BYTES = IS_64_BIT && !COMPRESSED_OOPS ? 8 : 4;
+    static final int HEADER_BYTES = !IS_64_BIT ? 8 : COMPRESSED_OOPS ? 12 : 16;
+    static final int ARRAY_HEADER_BYTES = !IS_64_BIT ? 12 : COMPRESSED_OOPS ? 16 : 20;
+
+    // value, left, right, parent, next, prev and three ints
+    static final long AVL_NODE_BYTES = objectBytes(6, 3 * 4);
+
+    private MemoryLayout() {
+    }
+
+    static long objectBytes(int references, int primitiveBytes) {
+        return align(HEADER_BYTES + (long) references * REFERENCE_BYTES + primitiveBytes);
+    }
+
+    static long referenceArrayBytes(int length) {
+        return align(ARRAY_HEADER_BYTES + (long) length * REFERENCE_BYTES);
+    }
+
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
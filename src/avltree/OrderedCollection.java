@@ -0,0 +1,41 @@
+package avltree;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+public interface OrderedCollection<E> extends Collection<E> {
+    // Provisional: past this many elements create picks the fat-node layout, whose levels are single arrays, on
+    // the expectation that it wins on lookups there. Revisit once benchmarks have measured the crossover
+    int FAT_NODE_THRESHOLD = 1 << 20;
+
+    Comparator<? super E> getComparator();
+
+    E get(int index);
+
+    List<? extends OrderedCollection<E>> split(E value, boolean valueLeft);
+
+    void retainInterval(E min, E max, boolean minOpen, boolean maxOpen);
+
+    void retainSegment(E min, E max);
+
+    void retainInterval(E min, E max);
+
+    void removeInterval(E min, E max, boolean minOpen, boolean maxOpen);
+
+    void removeSegment(E min, E max);
+
+    void removeInterval(E min, E max);
+
+    static <E> OrderedCollection<E> create(int expectedSize) {
+        return create(expectedSize, new ComparableComparator<>());
+    }
+
+    static <E> OrderedCollection<E> create(int expectedSize, Comparator<? super E> comparator) {
+        if (expectedSize >= FAT_NODE_THRESHOLD) {
+            return new BPlusTree<>(comparator);
+        }
+
+        return new AVLTree<>(comparator);
+    }
+}
@@ -0,0 +1,148 @@
+package avltree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AVLMultisetTest {
+    private static <T> int countNodes(AVLNode<T> node) {
+        return node == null ? 0 : countNodes(node.left) + countNodes(node.right) + 1;
+    }
+
+    @Test
+    public void duplicatesShareNode() throws Exception {
+        AVLMultiset<Integer> multiset = new AVLMultiset<>();
+        for (int i = 0; i < 1 << 10; ++i) {
+            multiset.add(i % 4);
+        }
+
+        assertEquals(1 << 10, multiset.size());
+        assertEquals(4, countNodes(multiset.head));
+        assertEquals(1 << 8, multiset.count(3));
+        assertTrue(AVLTreeTest.treeIsBalanced(multiset));
+    }
+
+    @Test
+    public void addOccurrences() throws Exception {
+        AVLMultiset<Integer> multiset = new AVLMultiset<>();
+        assertEquals(0, multiset.add(5, 3));
+        assertEquals(3, multiset.add(5, 2));
+        assertEquals(0, multiset.add(1, 1));
+        assertEquals(0, multiset.add(9, 0));
+
+        assertEquals(5, multiset.count(5));
+        assertEquals(0, multiset.count(9));
+        assertEquals(0, multiset.count("5"));
+        assertEquals(6, multiset.size());
+    }
+
+    @Test
+    public void countsNeverOverflow() throws Exception {
+        AVLMultiset<Integer> multiset = new AVLMultiset<>();
+        assertEquals(0, multiset.add(5, Integer.MAX_VALUE - 1));
+        assertEquals(Integer.MAX_VALUE - 1, multiset.add(5, 1));
+
+        List<Runnable> overflows = Arrays.asList(
+                () -> multiset.add(5, 1),
+                () -> multiset.add(6, 1),
+                () -> multiset.add(6),
+                () -> multiset.fingerInsert(null, 5));
+        for (Runnable overflow : overflows) {
+            try {
+                overflow.run();
+                fail();
+            }
+            catch (IllegalArgumentException e) {
+                assertEquals(Integer.MAX_VALUE, multiset.size());
+                assertEquals(Integer.MAX_VALUE, multiset.count(5));
+            }
+        }
+
+        assertEquals(Integer.MAX_VALUE, multiset.remove(5, Integer.MAX_VALUE));
+        assertTrue(multiset.isEmpty());
+    }
+
+    @Test
+    public void removeOccurrences() throws Exception {
+        AVLMultiset<Integer> multiset = new AVLMultiset<>(Arrays.asList(1, 2, 2, 2, 3));
+        assertTrue(multiset.remove(2));
+        assertEquals(2, multiset.count(2));
+        assertEquals(2, multiset.remove(2, 1));
+        assertEquals(1, multiset.removeAll(2));
+        assertEquals(0, multiset.count(2));
+        assertFalse(multiset.remove(2));
+        assertEquals(0, multiset.removeAll(2));
+        assertEquals(2, multiset.size());
+        assertEquals(2, countNodes(multiset.head));
+    }
+
+    @Test
+    public void getAndIterate() throws Exception {
+        AVLMultiset<Integer> multiset = new AVLMultiset<>();
+        multiset.add(3, 2);
+        multiset.add(1, 3);
+        multiset.add(2, 1);
+
+        List<Integer> expected = Arrays.asList(1, 1, 1, 2, 3, 3);
+        assertEquals(expected, new ArrayList<>(multiset));
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i), multiset.get(i));
+        }
+    }
+
+    @Test
+    public void iteratorRemove() throws Exception {
+        AVLMultiset<Integer> multiset = new AVLMultiset<>(Arrays.asList(1, 1, 2, 2, 2));
+        Iterator<Integer> iterator = multiset.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == 2) {
+                iterator.remove();
+            }
+        }
+
+        assertEquals(Arrays.asList(1, 1), new ArrayList<>(multiset));
+    }
+
+    @Test
+    public void splitKeepsCounts() throws Exception {
+        AVLMultiset<Integer> multiset = new AVLMultiset<>(Arrays.asList(1, 2, 2, 3, 3, 3));
+        List<AVLTree<Integer>> parts = multiset.split(2, true);
+
+        AVLMultiset<Integer> left = (AVLMultiset<Integer>) parts.get(0);
+        assertEquals(3, left.size());
+        assertEquals(2, left.count(2));
+        assertEquals(3, parts.get(1).size());
+    }
+
+    @Test
+    public void quantilesCountOccurrences() throws Exception {
+        AVLMultiset<Integer> multiset = new AVLMultiset<>();
+        multiset.add(200, 90);
+        multiset.add(500, 9);
+        multiset.add(503, 1);
+
+        assertEquals(Arrays.asList(200, 500, 500, 503), multiset.quantiles(0.5, 0.95, 0.99, 1));
+    }
+
+    @Test
+    public void fingerInsertSharesNode() throws Exception {
+        AVLMultiset<Integer> multiset = new AVLMultiset<>();
+        AVLNode<Integer> finger = null;
+        for (int i = 0; i < 1 << 10; ++i) {
+            finger = multiset.fingerInsert(finger, i / 4);
+        }
+
+        assertEquals(1 << 10, multiset.size());
+        assertEquals(1 << 8, countNodes(multiset.head));
+        assertEquals(4, multiset.count(7));
+
+        finger = multiset.fingerRemove(finger, 7);
+        assertEquals(7, (int) finger.value);
+        assertEquals(3, multiset.count(7));
+    }
+}
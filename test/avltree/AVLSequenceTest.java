@@ -0,0 +1,133 @@
+package avltree;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AVLSequenceTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static <E> void assertThreaded(AVLSequence<E> sequence) {
+        if (sequence.head == null) {
+            return;
+        }
+
+        AVLNode<E> node = AVLNode.findMin(sequence.head);
+        for (int i = 0; i < sequence.size(); ++i) {
+            assertSame(sequence.node(i), node);
+            assertSame(node, node.next.prev);
+            node = node.next;
+        }
+
+        assertSame(AVLNode.findMin(sequence.head), node);
+    }
+
+    @Test
+    public void positionalEditsMatchArrayList() throws Exception {
+        Random random = new Random(3);
+        AVLSequence<Integer> sequence = new AVLSequence<>();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1 << 12; ++i) {
+            int op = random.nextInt(4);
+            if (op < 2 || expected.isEmpty()) {
+                int index = random.nextInt(expected.size() + 1);
+                sequence.add(index, i);
+                expected.add(index, i);
+            }
+            else if (op == 2) {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.remove(index), sequence.remove(index));
+            }
+            else {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.set(index, -i), sequence.set(index, -i));
+            }
+        }
+
+        assertEquals(expected, sequence);
+        assertTrue(AVLNodeTest.nodeIsBalanced(sequence.head));
+        assertThreaded(sequence);
+    }
+
+    @Test
+    public void splitAndConcat() throws Exception {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            expected.add(i);
+        }
+
+        AVLSequence<Integer> sequence = new AVLSequence<>(expected);
+        List<AVLSequence<Integer>> parts = sequence.split(337);
+        assertTrue(sequence.isEmpty());
+        assertEquals(expected.subList(0, 337), parts.get(0));
+        assertEquals(expected.subList(337, 1000), parts.get(1));
+        assertThreaded(parts.get(0));
+        assertThreaded(parts.get(1));
+
+        AVLSequence<Integer> swapped = AVLSequence.concat(parts.get(1), parts.get(0));
+        assertTrue(parts.get(0).isEmpty());
+        assertEquals(1000, swapped.size());
+        assertEquals(Integer.valueOf(0), swapped.get(1000 - 337));
+        assertTrue(AVLNodeTest.nodeIsBalanced(swapped.head));
+        assertThreaded(swapped);
+
+        assertTrue(new AVLSequence<Integer>().split(0).get(1).isEmpty());
+    }
+
+    @Test
+    public void removeRange() throws Exception {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            expected.add(i);
+        }
+
+        AVLSequence<Integer> sequence = new AVLSequence<>(expected);
+        sequence.subList(10, 90).clear();
+        expected.subList(10, 90).clear();
+        assertEquals(expected, sequence);
+        assertThreaded(sequence);
+    }
+
+    @Test
+    public void neighbours() throws Exception {
+        AVLSequence<String> sequence = new AVLSequence<>(Arrays.asList("a", "b", "d"));
+        sequence.add(2, "c");
+        sequence.add("e");
+
+        AVLNode<String> node = sequence.node(2);
+        assertEquals("b", node.prev.value);
+        assertEquals("d", node.next.value);
+        assertEquals(2, sequence.indexOfNode(node));
+        assertEquals(4, sequence.indexOfNode(node.next.next));
+    }
+
+    @Test
+    public void iteratorRemove() throws Exception {
+        AVLSequence<Integer> sequence = new AVLSequence<>(Arrays.asList(1, 2, 3, 4, 5, 6));
+        Iterator<Integer> iterator = sequence.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() % 2 == 0) {
+                iterator.remove();
+            }
+        }
+
+        assertEquals(Arrays.asList(1, 3, 5), sequence);
+        assertThreaded(sequence);
+    }
+
+    @Test
+    public void addOutOfBounds() throws Exception {
+        AVLSequence<Integer> sequence = new AVLSequence<>(Arrays.asList(1, 2));
+        thrown.expect(IndexOutOfBoundsException.class);
+        sequence.add(3, 0);
+    }
+}
@@ -0,0 +1,304 @@
+package avltree;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+// Differential fuzzing against a sorted list with the invariant checker on after every operation.
+// -Davltree.fuzz.ops and -Davltree.fuzz.seed turn it into a long run
+public class AVLTreeFuzzTest {
+    private static final int OPS = Integer.getInteger("avltree.fuzz.ops", 1 << 13);
+    private static final long SEED = Long.getLong("avltree.fuzz.seed", 42);
+    private static final int KEYS = 1 << 8;
+
+    private enum Kind {
+        ADD, REMOVE, CONTAINS, GET, SPLIT_JOIN, RETAIN_INTERVAL, REMOVE_INTERVAL, ITERATOR_REMOVE, FINGER_INSERT,
+        FINGER_REMOVE
+    }
+
+    private static final class Op {
+        final Kind kind;
+        final int a;
+        final int b;
+        final boolean aOpen;
+        final boolean bOpen;
+
+        Op(Kind kind, int a, int b, boolean aOpen, boolean bOpen) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+            this.aOpen = aOpen;
+            this.bOpen = bOpen;
+        }
+
+        @Override
+        public String toString() {
+            return kind + "(" + a + ", " + b + ", " + aOpen + ", " + bOpen + ")";
+        }
+    }
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static List<Op> randomOps(Random random, int n) {
+        List<Op> ops = new ArrayList<>(n);
+        Kind[] kinds = Kind.values();
+        for (int i = 0; i < n; ++i) {
+            // Inserts dominate so the tree grows past trivial sizes between interval operations
+            Kind kind = random.nextInt(3) == 0 ? Kind.ADD : kinds[random.nextInt(kinds.length)];
+            if ((kind == Kind.RETAIN_INTERVAL || kind == Kind.SPLIT_JOIN) && random.nextInt(4) != 0) {
+                kind = Kind.FINGER_INSERT;
+            }
+
+            ops.add(new Op(kind, random.nextInt(KEYS), random.nextInt(KEYS), random.nextBoolean(),
+                    random.nextBoolean()));
+        }
+
+        return ops;
+    }
+
+    private static boolean inInterval(int x, Op op) {
+        boolean lower = op.aOpen ? x > op.a : x >= op.a;
+        boolean upper = op.bOpen ? x < op.b : x <= op.b;
+        return op.a <= op.b ? lower && upper : lower || upper;
+    }
+
+    // Returns the index of the first operation that fails, or -1
+    private static int replay(List<Op> ops, Supplier<AVLTree<Integer>> factory) {
+        AVLTree<Integer> tree = factory.get();
+        tree.setInvariantChecker(AVLInvariants::check);
+        List<Integer> expected = new ArrayList<>();
+
+        for (int i = 0; i < ops.size(); ++i) {
+            Op op = ops.get(i);
+            try {
+                tree = apply(op, tree, expected, factory);
+                if (tree.size() != expected.size() || !expected.equals(new ArrayList<>(tree))) {
+                    return i;
+                }
+            }
+            catch (RuntimeException | AssertionError e) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static AVLTree<Integer> apply(Op op, AVLTree<Integer> tree, List<Integer> expected,
+                                          Supplier<AVLTree<Integer>> factory) {
+        int pos = Collections.binarySearch(expected, op.a);
+        switch (op.kind) {
+            case ADD:
+                tree.add(op.a);
+                expected.add(pos < 0 ? -pos - 1 : pos, op.a);
+                break;
+            case REMOVE:
+                assertEquals(expected.remove((Integer) op.a), tree.remove(op.a));
+                break;
+            case CONTAINS:
+                assertEquals(pos >= 0, tree.contains(op.a));
+                break;
+            case GET:
+                if (!expected.isEmpty()) {
+                    int index = op.b % expected.size();
+                    assertEquals(expected.get(index), tree.get(index));
+                }
+                break;
+            case SPLIT_JOIN:
+                List<AVLTree<Integer>> parts = tree.split(op.a, op.aOpen);
+                tree = AVLTree.join(parts.get(0), parts.get(1));
+                break;
+            case RETAIN_INTERVAL:
+                tree.retainInterval(op.a, op.b, op.aOpen, op.bOpen);
+                expected.removeIf(x -> !inInterval(x, op));
+                if (op.a > op.b) {
+                    // The wrapped range comes out rotated, high keys first; start over from a sorted tree
+                    List<Integer> rotated = new ArrayList<>();
+                    expected.stream().filter(x -> x > op.b || x == op.b && op.bOpen).forEach(rotated::add);
+                    expected.stream().filter(x -> x < op.b || x == op.b && !op.bOpen).forEach(rotated::add);
+                    assertEquals(rotated, new ArrayList<>(tree));
+
+                    AVLTree<Integer> sorted = factory.get();
+                    sorted.setInvariantChecker(AVLInvariants::check);
+                    sorted.addAll(expected);
+                    tree = sorted;
+                }
+                break;
+            case REMOVE_INTERVAL:
+                tree.removeInterval(op.a, op.b, op.aOpen, op.bOpen);
+                expected.removeIf(x -> inInterval(x, op));
+                break;
+            case ITERATOR_REMOVE:
+                Iterator<Integer> iterator = op.aOpen ? tree.descendingIterator() : tree.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next() % (op.b % 7 + 2) == 0) {
+                        iterator.remove();
+                    }
+                }
+                expected.removeIf(x -> x % (op.b % 7 + 2) == 0);
+                break;
+            case FINGER_INSERT:
+                AVLNode<Integer> finger = tree.fingerFind(null, op.b);
+                assertEquals(op.a, (int) tree.fingerInsert(finger, op.a).value);
+                expected.add(pos < 0 ? -pos - 1 : pos, op.a);
+                break;
+            case FINGER_REMOVE:
+                tree.fingerRemove(tree.fingerFind(null, op.b), op.a);
+                expected.remove((Integer) op.a);
+                break;
+        }
+
+        return tree;
+    }
+
+    // Drops ever smaller chunks of the sequence while it still fails
+    private static List<Op> shrink(List<Op> ops, Supplier<AVLTree<Integer>> factory) {
+        List<Op> res = new ArrayList<>(ops.subList(0, replay(ops, factory) + 1));
+        for (int chunk = res.size() / 2; chunk > 0; chunk /= 2) {
+            int i = 0;
+            while (i < res.size()) {
+                List<Op> candidate = new ArrayList<>(res.subList(0, i));
+                candidate.addAll(res.subList(Math.min(i + chunk, res.size()), res.size()));
+                int failure = replay(candidate, factory);
+                if (failure >= 0) {
+                    res = new ArrayList<>(candidate.subList(0, failure + 1));
+                }
+                else {
+                    i += chunk;
+                }
+            }
+        }
+
+        return res;
+    }
+
+    private static void fuzz(String name, Supplier<AVLTree<Integer>> factory) {
+        List<Op> ops = randomOps(new Random(SEED), OPS);
+        long start = System.nanoTime();
+        int failure = replay(ops, factory);
+        long elapsed = System.nanoTime() - start;
+
+        if (failure >= 0) {
+            fail(name + " diverged, seed " + SEED + ", minimal sequence: " + shrink(ops, factory));
+        }
+
+        System.out.printf("%s: %d checked ops in %d ms, %.0f ops/s%n", name, OPS, elapsed / 1000000,
+                OPS * 1e9 / elapsed);
+    }
+
+    @Test
+    public void fuzzAVLTree() throws Exception {
+        fuzz("AVLTree", AVLTree::new);
+    }
+
+    @Test
+    public void fuzzMultiset() throws Exception {
+        fuzz("AVLMultiset", AVLMultiset::new);
+    }
+
+    @Test
+    public void fuzzLazyTree() throws Exception {
+        fuzz("LazyAVLTree", () -> {
+            LazyAVLTree<Integer> tree = new LazyAVLTree<>();
+            tree.setCompactionThreshold(0.25);
+            return tree;
+        });
+    }
+
+    @Test
+    public void fuzzCompactTree() throws Exception {
+        // Low thresholds so the fuzzer keeps crossing between the array and the nodes
+        fuzz("CompactAVLTree", () -> {
+            CompactAVLTree<Integer> tree = new CompactAVLTree<>();
+            tree.setThresholds(8, 3);
+            return tree;
+        });
+    }
+
+    @Test
+    public void fuzzBufferedTree() throws Exception {
+        // A small buffer so both merge strategies run often
+        fuzz("BufferedAVLTree", () -> {
+            BufferedAVLTree<Integer> tree = new BufferedAVLTree<>();
+            tree.setBufferCapacity(8);
+            return tree;
+        });
+    }
+
+    @Test
+    public void shrinkToMinimalSequence() throws Exception {
+        // Forgets 13 once the tree holds more than three elements
+        Supplier<AVLTree<Integer>> broken = () -> new AVLTree<Integer>() {
+            @Override
+            public boolean contains(Object o) {
+                return !(o.equals(13) && size() > 3) && super.contains(o);
+            }
+        };
+
+        // Split and join hand back plain trees, which would hide the bug
+        List<Op> ops = new ArrayList<>(randomOps(new Random(SEED), 1 << 8));
+        ops.removeIf(op -> op.kind == Kind.SPLIT_JOIN);
+        ops.add(new Op(Kind.ADD, 13, 0, false, false));
+        for (int i = 0; i < 4; ++i) {
+            ops.add(new Op(Kind.ADD, i, 0, false, false));
+        }
+        ops.add(new Op(Kind.CONTAINS, 13, 0, false, false));
+
+        List<Op> minimal = shrink(ops, broken);
+        assertTrue(minimal.size() <= 5);
+        assertEquals(Kind.CONTAINS, minimal.get(minimal.size() - 1).kind);
+        assertTrue(replay(minimal, broken) >= 0);
+    }
+
+    @Test
+    public void checkerRunsAfterMutations() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        int[] checks = new int[1];
+        tree.setInvariantChecker(t -> ++checks[0]);
+
+        tree.add(1);
+        tree.add(2);
+        tree.remove(1);
+        tree.contains(2);
+        tree.retainSegment(0, 5);
+        assertEquals(4, checks[0]);
+    }
+
+    @Test
+    public void checkerDetectsCorruption() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i < 16; ++i) {
+            tree.add(i);
+        }
+
+        AVLInvariants.check(tree);
+        AVLNode<Integer> node = tree.fingerFind(null, 5);
+        AVLNode.setNext(node, node.next.next);
+
+        thrown.expect(IllegalStateException.class);
+        AVLInvariants.check(tree);
+    }
+
+    @Test
+    public void checkerReachesRepresentationState() throws Exception {
+        BufferedAVLTree<Integer> tree = new BufferedAVLTree<>();
+        tree.addAll(Collections.nCopies(4, 1));
+        tree.add(0);
+        AVLInvariants.check(tree);
+
+        // Only the buffer is out of order; the nodes are all fine
+        tree.inserts[0] = 2;
+        thrown.expect(IllegalStateException.class);
+        AVLInvariants.check(tree);
+    }
+}
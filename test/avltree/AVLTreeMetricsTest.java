@@ -0,0 +1,165 @@
+package avltree;
+
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AVLTreeMetricsTest {
+    private static final long INTEGER_BYTES = MemoryLayout.objectBytes(0, 4);
+
+    // These tests check estimatedBytes against the layout formula, not against a measured heap
+    private static <E> long expectedBytes(AVLTree<E> tree, int nodes, long keyBytes) {
+        return tree.shellBytes() + nodes * MemoryLayout.AVL_NODE_BYTES + keyBytes;
+    }
+
+    private static long fieldBytes(Class<?> type) {
+        int references = 0;
+        int primitiveBytes = 0;
+        for (Field field : type.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+
+            if (field.getType() == int.class) {
+                primitiveBytes += 4;
+            }
+            else if (field.getType() == long.class) {
+                primitiveBytes += 8;
+            }
+            else {
+                assertFalse(field.getType().isPrimitive());
+                ++references;
+            }
+        }
+
+        return MemoryLayout.objectBytes(references, primitiveBytes);
+    }
+
+    @Test
+    public void nodeLayoutFormula() throws Exception {
+        assertEquals(fieldBytes(AVLNode.class), MemoryLayout.AVL_NODE_BYTES);
+        if (MemoryLayout.COMPRESSED_OOPS) {
+            assertEquals(48, MemoryLayout.AVL_NODE_BYTES);
+        }
+        else if (MemoryLayout.IS_64_BIT) {
+            assertEquals(80, MemoryLayout.AVL_NODE_BYTES);
+        }
+    }
+
+    @Test
+    public void shellLayoutFormula() throws Exception {
+        assertEquals(fieldBytes(AVLTree.class), new AVLTree<Integer>().shellBytes());
+    }
+
+    @Test
+    public void bytesPerElementFormula() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i < 1 << 10; ++i) {
+            tree.add(i);
+        }
+
+        assertEquals(expectedBytes(tree, 1 << 10, 0), tree.estimatedBytes());
+        assertEquals(MemoryLayout.AVL_NODE_BYTES, (tree.estimatedBytes() - tree.shellBytes()) >> 10);
+
+        tree.setKeySizer(i -> INTEGER_BYTES);
+        assertEquals(MemoryLayout.AVL_NODE_BYTES + INTEGER_BYTES, (tree.estimatedBytes() - tree.shellBytes()) >> 10);
+
+        tree.remove(5);
+        assertEquals(expectedBytes(tree, (1 << 10) - 1, ((1 << 10) - 1) * INTEGER_BYTES), tree.estimatedBytes());
+    }
+
+    @Test
+    public void multisetBytesPerElement() throws Exception {
+        AVLMultiset<Integer> multiset = new AVLMultiset<>();
+        multiset.setKeySizer(i -> INTEGER_BYTES);
+        for (int i = 0; i < 1 << 10; ++i) {
+            multiset.add(i % 4);
+        }
+
+        assertEquals(4, multiset.nodeCount());
+        assertEquals(expectedBytes(multiset, 4, 4 * INTEGER_BYTES), multiset.estimatedBytes());
+
+        multiset.removeAll(3);
+        assertEquals(3, multiset.nodeCount());
+    }
+
+    @Test
+    public void lazyTreeCountsDeadNodes() throws Exception {
+        LazyAVLTree<Integer> tree = new LazyAVLTree<>();
+        tree.setCompactionThreshold(1);
+        for (Integer i = 0; i < 100; ++i) {
+            tree.add(i);
+        }
+
+        for (Integer i = 0; i < 50; ++i) {
+            tree.remove(i);
+        }
+
+        assertEquals(100, tree.nodeCount());
+        assertEquals(expectedBytes(tree, 100, 0), tree.estimatedBytes());
+
+        tree.compact();
+        assertEquals(50, tree.nodeCount());
+    }
+
+    @Test
+    public void structuralChangesKeepKeySizes() throws Exception {
+        AVLMultiset<Integer> tree = new AVLMultiset<>();
+        int[] sized = new int[1];
+        tree.setKeySizer(i -> {
+            ++sized[0];
+            return INTEGER_BYTES;
+        });
+        for (Integer i = 0; i < 100; ++i) {
+            tree.add(i, 2);
+        }
+
+        int sizedBefore = sized[0];
+        tree.retainSegment(10, 59);
+        assertEquals(expectedBytes(tree, 50, 50 * INTEGER_BYTES), tree.estimatedBytes());
+        tree.removeSegment(50, 59);
+        assertEquals(expectedBytes(tree, 40, 40 * INTEGER_BYTES), tree.estimatedBytes());
+
+        List<AVLTree<Integer>> parts = tree.split(19, true);
+        assertEquals(0, tree.nodeCount());
+        assertEquals(10, parts.get(0).nodeCount());
+        assertEquals(30, parts.get(1).nodeCount());
+        assertEquals(40, AVLTree.join(parts.get(0), parts.get(1)).nodeCount());
+        assertEquals(sizedBefore, sized[0]);
+
+        tree.clear();
+        assertEquals(tree.shellBytes(), tree.estimatedBytes());
+    }
+
+    @Test
+    public void exportedOverJmx() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i < 10; ++i) {
+            tree.add(i);
+        }
+
+        AVLTreeMetrics metrics = new AVLTreeMetrics(tree);
+        ObjectName name = metrics.register("metricsTest");
+        try {
+            assertEquals(tree.estimatedBytes(),
+                    ManagementFactory.getPlatformMBeanServer().getAttribute(name, "EstimatedBytes"));
+
+            // Stale until the owner publishes, since JMX threads never touch the tree
+            tree.retainSegment(0, 4);
+            assertEquals(10, metrics.getNodeCount());
+            assertEquals(10, metrics.getSize());
+            metrics.refresh();
+            assertEquals(5, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "NodeCount"));
+            assertEquals(5, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Size"));
+        }
+        finally {
+            AVLTreeMetrics.unregister(name);
+        }
+    }
+}
@@ -6,8 +6,14 @@ import org.junit.rules.ExpectedException;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -172,6 +178,33 @@ public class AVLTreeTest {
         }
     }
 
+    @Test
+    public void derivedTreesKeepKeyKind() throws Exception {
+        assertEquals(ComparableComparator.STRING, new AVLTree<>(new AVLNode<>("a")).keyKind);
+
+        AVLTree<Integer> tree = createSimpleTree();
+        List<AVLTree<Integer>> parts = tree.split(5, true);
+        assertEquals(ComparableComparator.INTEGER, parts.get(0).keyKind);
+        assertTrue(parts.get(1).isEmpty());
+        assertEquals(ComparableComparator.INTEGER, parts.get(1).keyKind);
+
+        AVLTree<Integer> joined = AVLTree.join(new AVLTree<>(), parts.get(0));
+        assertEquals(ComparableComparator.INTEGER, joined.keyKind);
+
+        AVLTree<Integer> replica = new AVLTree<>();
+        replica.setHead(joined.getHead());
+        assertEquals(ComparableComparator.INTEGER, replica.keyKind);
+
+        // Small compact trees split their key arrays rather than nodes
+        CompactAVLTree<Integer> compact = new CompactAVLTree<>(Arrays.asList(1, 2, 3));
+        assertTrue(compact.isCompact());
+        List<AVLTree<Integer>> slices = compact.split(5, true);
+        assertEquals(ComparableComparator.INTEGER, slices.get(0).keyKind);
+        assertTrue(slices.get(1).isEmpty());
+        assertEquals(ComparableComparator.INTEGER, slices.get(1).keyKind);
+        assertEquals(ComparableComparator.INTEGER, AVLTree.join(new CompactAVLTree<>(), slices.get(0)).keyKind);
+    }
+
     @Test
     public void joinNull() throws Exception {
         AVLTree<Integer> tree = AVLTree.join(null, null);
@@ -367,4 +400,364 @@ public class AVLTreeTest {
         thrown.expect(IndexOutOfBoundsException.class);
         tree.get(0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void addNull() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+
+        thrown.expect(NullPointerException.class);
+        tree.add(null);
+    }
+
+    @Test
+    public void specializedKeyKinds() throws Exception {
+        AVLTree<String> strings = new AVLTree<>(Arrays.asList("c", "a", "b"));
+        assertEquals("a", strings.get(0));
+        assertEquals("c", strings.get(2));
+
+        AVLTree<Long> longs = new AVLTree<>(Arrays.asList(3L, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(Long.valueOf(Long.MIN_VALUE), longs.get(0));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), longs.get(2));
+
+        AVLTree<Integer> ints = createSimpleTree();
+        assertFalse(ints.contains(1L));
+        assertFalse(ints.remove("1"));
+    }
+
+    @Test
+    public void customComparator() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>(Arrays.asList(1, 2, 3), Comparator.reverseOrder());
+        assertEquals(Integer.valueOf(3), tree.get(0));
+        assertEquals(Integer.valueOf(1), tree.get(2));
+    }
+
+    @Test
+    public void iteratorFailFast() throws Exception {
+        AVLTree<Integer> tree = createSimpleTree();
+        Iterator<Integer> iterator = tree.iterator();
+        iterator.next();
+        tree.add(4);
+
+        thrown.expect(ConcurrentModificationException.class);
+        iterator.next();
+    }
+
+    @Test
+    public void iteratorRemoveEveryOther() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i < 1 << 10; ++i) {
+            tree.add(i);
+        }
+
+        Iterator<Integer> iterator = tree.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() % 2 == 0) {
+                iterator.remove();
+            }
+        }
+
+        assertEquals(tree.size(), 1 << 9);
+        assertTrue(treeIsBalanced(tree));
+
+        Integer i = 1;
+        for (Integer elem : tree) {
+            assertEquals(i, elem);
+            i += 2;
+        }
+    }
+
+    @Test
+    public void iteratorRemoveDuplicate() throws Exception {
+        Integer[] values = {5, 5, 5, 5, 5};
+        AVLTree<Integer> tree = new AVLTree<>(Arrays.asList(values));
+        AVLNode<Integer> last = AVLNode.findMax(tree.head);
+
+        Iterator<Integer> iterator = tree.iterator();
+        for (Integer value : values) {
+            iterator.next();
+        }
+
+        iterator.remove();
+        assertEquals(tree.size(), values.length - 1);
+        assertNotSame(last, AVLNode.findMax(tree.head));
+
+        thrown.expect(IllegalStateException.class);
+        iterator.remove();
+    }
+
+    @Test
+    public void descendingIterator() throws Exception {
+        AVLTree<Integer> tree = createSimpleTree();
+        Iterator<Integer> iterator = tree.descendingIterator();
+        for (Integer i = 3; i >= 1; --i) {
+            assertEquals(i, iterator.next());
+            iterator.remove();
+        }
+
+        assertFalse(iterator.hasNext());
+        assertTrue(tree.isEmpty());
+    }
+
+    @Test
+    public void select() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i < 1 << 10; ++i) {
+            tree.add(i);
+        }
+
+        assertEquals(Arrays.asList(0, 5, 5, 1023), tree.select(0, 5, 5, 1023));
+        assertEquals(Arrays.asList(700, 3, 500), tree.select(700, 3, 500));
+        assertTrue(tree.select().isEmpty());
+    }
+
+    @Test
+    public void quantiles() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 1; i <= 100; ++i) {
+            tree.add(i);
+        }
+
+        assertEquals(Arrays.asList(1, 50, 95, 99, 100), tree.quantiles(0, 0.5, 0.95, 0.99, 1));
+        assertEquals(Integer.valueOf(50), tree.quantile(0.5));
+        assertEquals(Integer.valueOf(50), tree.percentileFloor(50));
+        assertEquals(Integer.valueOf(51), tree.percentileCeiling(50));
+        assertEquals(Integer.valueOf(100), tree.percentileFloor(100));
+
+        thrown.expect(IllegalArgumentException.class);
+        tree.quantile(1.5);
+    }
+
+    @Test
+    public void sample() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i < 1 << 10; ++i) {
+            tree.add(i);
+        }
+
+        Random random = new Random(1);
+        List<Integer> sample = tree.sample(100, random);
+        assertEquals(100, sample.size());
+        assertEquals(100, new HashSet<>(sample).size());
+        for (int i = 1; i < sample.size(); ++i) {
+            assertTrue(sample.get(i - 1) < sample.get(i));
+        }
+
+        assertEquals(new ArrayList<>(tree), tree.sample(tree.size(), random));
+    }
+
+    @Test
+    public void successorCyclic() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>(Arrays.asList(10, 20, 20, 30));
+
+        assertEquals(Integer.valueOf(10), tree.ceilingCyclic(5));
+        assertEquals(Integer.valueOf(20), tree.ceilingCyclic(20));
+        assertEquals(Integer.valueOf(30), tree.higherCyclic(20));
+        assertEquals(Integer.valueOf(10), tree.ceilingCyclic(31));
+        assertEquals(Integer.valueOf(10), tree.higherCyclic(30));
+        assertNull(new AVLTree<Integer>().ceilingCyclic(1));
+    }
+
+    @Test
+    public void countInterval() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i <= 1 << 10; ++i) {
+            tree.add(i);
+        }
+
+        assertEquals(513 - 22 + 1, tree.countSegment(22, 513));
+        assertEquals(513 - 22 - 1, tree.countInterval(22, 513));
+        assertEquals(0, tree.countInterval(5, 5));
+        assertEquals(tree.size() - (513 - 22 - 1), tree.countSegment(513, 22));
+
+        tree.retainSegment(513, 22);
+        assertEquals(tree.size(), 23 + (1 << 10) - 513 + 1);
+    }
+
+    @Test
+    public void fingerInsertNearlySorted() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        AVLNode<Integer> finger = null;
+        for (Integer i = 0; i < 1 << 10; ++i) {
+            finger = tree.fingerInsert(finger, i % 8 == 0 ? i + 3 : i);
+            assertEquals(i % 8 == 0 ? i + 3 : i, (int) finger.value);
+        }
+
+        assertEquals(1 << 10, tree.size());
+        assertTrue(treeIsBalanced(tree));
+        List<Integer> expected = new ArrayList<>(tree);
+        Collections.sort(expected);
+        assertEquals(expected, new ArrayList<>(tree));
+    }
+
+    @Test
+    public void fingerFind() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i < 1 << 10; i += 2) {
+            tree.add(i);
+        }
+
+        AVLNode<Integer> finger = tree.fingerFind(null, 500);
+        for (Integer i = 0; i < 1 << 10; ++i) {
+            AVLNode<Integer> node = tree.fingerFind(finger, i);
+            if (i % 2 == 0) {
+                assertEquals(i, node.value);
+                finger = node;
+            }
+            else {
+                assertNull(node);
+            }
+        }
+    }
+
+    @Test
+    public void fingerRemove() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>(Arrays.asList(1, 2, 3, 4, 5));
+        AVLNode<Integer> finger = tree.fingerFind(null, 2);
+
+        finger = tree.fingerRemove(finger, 3);
+        assertEquals(4, (int) finger.value);
+        assertSame(finger, tree.fingerRemove(finger, 3));
+        finger = tree.fingerRemove(finger, 5);
+        assertEquals(1, (int) finger.value);
+        assertEquals(Arrays.asList(1, 2, 4), new ArrayList<>(tree));
+
+        finger = tree.fingerRemove(finger, 1);
+        finger = tree.fingerRemove(finger, 4);
+        finger = tree.fingerRemove(finger, 2);
+        assertNull(finger);
+        assertTrue(tree.isEmpty());
+    }
+
+    @Test
+    public void fingerRemovedByFinger() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i < 20; ++i) {
+            tree.add(i);
+        }
+
+        AVLNode<Integer> finger = tree.fingerFind(null, 10);
+        tree.fingerRemove(finger, 10);
+        assertNull(tree.fingerFind(finger, 10));
+        assertEquals(11, (int) tree.fingerInsert(finger, 11).value);
+        assertEquals(20, tree.size());
+        assertEquals(Integer.valueOf(0), tree.get(0));
+        AVLInvariants.check(tree);
+    }
+
+    @Test
+    public void fingerRemovedByKey() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i < 20; ++i) {
+            tree.add(i);
+        }
+
+        AVLNode<Integer> finger = tree.fingerFind(null, 10);
+        assertTrue(tree.remove(10));
+        assertSame(finger, tree.fingerRemove(finger, 10));
+        assertEquals(12, (int) tree.fingerRemove(finger, 11).value);
+        assertEquals(18, tree.size());
+        assertEquals(18, tree.nodeCount());
+        AVLInvariants.check(tree);
+    }
+
+    @Test
+    public void fingerFromDiscardedPart() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i < 100; ++i) {
+            tree.add(i);
+        }
+
+        AVLNode<Integer> finger = tree.fingerFind(null, 90);
+        tree.retainSegment(0, 50);
+        assertNull(tree.fingerFind(finger, 90));
+        assertEquals(95, (int) tree.fingerInsert(finger, 95).value);
+        assertEquals(52, tree.size());
+        assertTrue(tree.contains(10));
+        AVLInvariants.check(tree);
+    }
+
+    @Test
+    public void fingerAcrossSplitAndJoin() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i < 100; ++i) {
+            tree.add(i);
+        }
+
+        AVLNode<Integer> finger = tree.fingerFind(null, 70);
+        List<AVLTree<Integer>> parts = tree.split(49, true);
+        assertNull(tree.fingerFind(finger, 70));
+        assertEquals(200, (int) tree.fingerInsert(finger, 200).value);
+        assertEquals(Collections.singletonList(200), new ArrayList<>(tree));
+
+        AVLTree<Integer> left = parts.get(0);
+        assertNull(left.fingerFind(finger, 70));
+        assertEquals(45, (int) left.fingerInsert(finger, 45).value);
+        assertEquals(51, left.size());
+        assertEquals(Integer.valueOf(99), parts.get(1).get(49));
+        AVLInvariants.check(left);
+
+        // The joined tree holds the finger's node, so the finger carries over
+        AVLTree<Integer> joined = AVLTree.join(left, parts.get(1));
+        assertSame(finger, joined.fingerFind(finger, 70));
+        joined.fingerInsert(finger, 70);
+        assertEquals(2, joined.countSegment(70, 70));
+        assertEquals(102, joined.size());
+        AVLInvariants.check(joined);
+    }
+
+    @Test
+    public void fingerAfterClear() throws Exception {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer i = 0; i < 100; ++i) {
+            tree.add(i);
+        }
+
+        AVLNode<Integer> finger = tree.fingerFind(null, 90);
+        tree.clear();
+        assertNull(tree.fingerFind(finger, 90));
+
+        tree.addAll(Arrays.asList(1, 2, 3));
+        assertNull(tree.fingerFind(finger, 90));
+        assertEquals(91, (int) tree.fingerInsert(finger, 91).value);
+        assertEquals(Arrays.asList(1, 2, 3, 91), new ArrayList<>(tree));
+        AVLInvariants.check(tree);
+    }
+
+    @Test
+    public void fingerComparisonsGrowWithDistance() throws Exception {
+        int[] comparisons = new int[1];
+        Comparator<Integer> counting = (o1, o2) -> {
+            ++comparisons[0];
+            return Integer.compare(o1, o2);
+        };
+
+        // Appends past a finger on the right spine cost the same whatever the size
+        for (int n : new int[] { 1 << 10, 1 << 16 }) {
+            AVLTree<Integer> tree = new AVLTree<>(counting);
+            AVLNode<Integer> finger = null;
+            for (Integer i = 0; i < n; ++i) {
+                comparisons[0] = 0;
+                finger = tree.fingerInsert(finger, i);
+                assertTrue(comparisons[0] <= 2);
+            }
+        }
+
+        AVLTree<Integer> tree = new AVLTree<>(counting);
+        for (Integer i = 0; i < 1 << 16; ++i) {
+            tree.add(i);
+        }
+
+        for (int d : new int[] { 1, 16, 256 }) {
+            AVLNode<Integer> finger = tree.fingerFind(null, 0);
+            comparisons[0] = 0;
+            int steps = 0;
+            for (Integer i = d; i < 1 << 16; i += d, ++steps) {
+                finger = tree.fingerFind(finger, i);
+            }
+
+            // A plain find takes about 17 comparisons at this size
+            int log = 32 - Integer.numberOfLeadingZeros(d);
+            assertTrue(comparisons[0] <= (2 * log + 4) * steps);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package avltree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncOrderedSetTest {
+    @Test
+    public void singleCaller() throws Exception {
+        AsyncOrderedSet<Integer> set = new AsyncOrderedSet<>(new AVLTree<>());
+
+        assertTrue(set.add(1).get());
+        assertTrue(set.contains(1).get());
+        assertFalse(set.contains(2).get());
+        assertTrue(set.remove(1).get());
+        assertFalse(set.remove(1).get());
+    }
+
+    @Test
+    public void concurrentCallers() throws Exception {
+        AsyncOrderedSet<Integer> set = new AsyncOrderedSet<>(new AVLTree<>(), 64);
+        int threads = 16;
+        int perThread = 1 << 10;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            int base = t * perThread;
+            CompletableFuture<Boolean> done = new CompletableFuture<>();
+            results.add(done);
+            executor.execute(() -> {
+                List<CompletableFuture<Boolean>> adds = new ArrayList<>();
+                for (int i = 0; i < perThread; ++i) {
+                    adds.add(set.add(base + i));
+                    set.contains(base + i % 8);
+                }
+
+                CompletableFuture.allOf(adds.toArray(new CompletableFuture<?>[0])).thenRun(() -> done.complete(true));
+            });
+        }
+
+        for (CompletableFuture<Boolean> done : results) {
+            assertTrue(done.get(30, TimeUnit.SECONDS));
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(threads * perThread, set.tree.size());
+        assertTrue(AVLTreeTest.treeIsBalanced(set.tree));
+        for (int i = 0; i < threads * perThread; i += 97) {
+            assertTrue(set.contains(i).get());
+        }
+    }
+
+    // Holds the combiner inside add(0) until released, so other requests pile up behind the flag
+    private static final class BlockingTree extends AVLTree<Integer> {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public boolean add(Integer e) {
+            if (e == 0) {
+                entered.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+
+            return super.add(e);
+        }
+    }
+
+    private static Thread startCombiner(AsyncOrderedSet<Integer> set, BlockingTree tree) throws Exception {
+        Thread combiner = new Thread(() -> set.add(0));
+        combiner.setDaemon(true);
+        combiner.start();
+        assertTrue(tree.entered.await(30, TimeUnit.SECONDS));
+        return combiner;
+    }
+
+    @Test
+    public void duplicateAddLeavesTreeAlone() throws Exception {
+        AsyncOrderedSet<Integer> set = new AsyncOrderedSet<>(new AVLTree<>());
+        assertTrue(set.add(1).get());
+        assertFalse(set.add(1).get());
+        assertEquals(1, set.tree.size());
+        assertTrue(set.remove(1).get());
+        assertFalse(set.contains(1).get());
+
+        // The same, with both adds in one batch behind a held combiner
+        BlockingTree tree = new BlockingTree();
+        AsyncOrderedSet<Integer> blocked = new AsyncOrderedSet<>(tree);
+        Thread combiner = startCombiner(blocked, tree);
+        CompletableFuture<Boolean> first = blocked.add(2);
+        CompletableFuture<Boolean> second = blocked.add(2);
+        tree.release.countDown();
+        assertTrue(first.get(30, TimeUnit.SECONDS));
+        assertFalse(second.get(30, TimeUnit.SECONDS));
+
+        combiner.join(30000);
+        assertEquals(Arrays.asList(0, 2), new ArrayList<>(tree));
+    }
+
+    @Test
+    public void dependentStagesRunOutsideTheCombiner() throws Exception {
+        BlockingTree tree = new BlockingTree();
+        AsyncOrderedSet<Integer> set = new AsyncOrderedSet<>(tree);
+        Thread combiner = startCombiner(set, tree);
+
+        // Chained while the add is queued, so the stage runs on the combiner thread and waits on a request of its own
+        CompletableFuture<Boolean> chained = set.add(1).thenApply(added -> set.contains(1).join());
+        tree.release.countDown();
+        assertTrue(chained.get(30, TimeUnit.SECONDS));
+
+        combiner.join(30000);
+        assertFalse(combiner.isAlive());
+        assertEquals(2, tree.size());
+    }
+
+    @Test
+    public void backlogHandedToExecutor() throws Exception {
+        BlockingTree tree = new BlockingTree();
+        List<Runnable> handed = new ArrayList<>();
+        AsyncOrderedSet<Integer> set = new AsyncOrderedSet<>(tree, 1, handed::add);
+        Thread combiner = startCombiner(set, tree);
+
+        // The flag is held, so these only enqueue
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 1; i <= 4 * AsyncOrderedSet.MAX_PASSES; ++i) {
+            results.add(set.add(i));
+        }
+
+        tree.release.countDown();
+        combiner.join(30000);
+        assertFalse(combiner.isAlive());
+        assertEquals(AsyncOrderedSet.MAX_PASSES, tree.size());
+        assertEquals(1, handed.size());
+
+        while (!handed.isEmpty()) {
+            handed.remove(0).run();
+        }
+
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.isDone());
+        }
+        assertEquals(4 * AsyncOrderedSet.MAX_PASSES + 1, tree.size());
+    }
+
+    @Test
+    public void rejectedKeyFailsOnlyItsRequest() throws Exception {
+        AVLTree<Object> tree = new AVLTree<>();
+        tree.add(1);
+        AsyncOrderedSet<Object> set = new AsyncOrderedSet<>(tree);
+
+        CompletableFuture<Boolean> bad = set.add("x");
+        assertTrue(bad.isCompletedExceptionally());
+        assertTrue(set.contains(1).get());
+    }
+}
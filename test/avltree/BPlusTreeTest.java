@@ -0,0 +1,205 @@
+package avltree;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BPlusTreeTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static final int CAPACITY = BPlusTree.MIN_NODE_CAPACITY;
+
+    private BPlusTree<Integer> createTree(int min, int max) {
+        BPlusTree<Integer> res = new BPlusTree<>(new ComparableComparator<>(), CAPACITY);
+        for (Integer i = min; i <= max; ++i) {
+            res.add(i);
+        }
+
+        return res;
+    }
+
+    private static <T> void assertContent(Collection<T> expected, BPlusTree<T> tree) {
+        assertEquals(expected.size(), tree.size());
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(tree));
+
+        int i = 0;
+        for (T e : expected) {
+            assertEquals(e, tree.get(i++));
+        }
+    }
+
+    @Test
+    public void addAndGet() throws Exception {
+        List<Integer> expected = new ArrayList<>();
+        BPlusTree<Integer> tree = new BPlusTree<>(new ComparableComparator<>(), CAPACITY);
+        Random random = new Random(42);
+        for (int i = 0; i < 1 << 10; ++i) {
+            Integer e = random.nextInt(100);
+            expected.add(e);
+            assertTrue(tree.add(e));
+        }
+
+        Collections.sort(expected);
+        assertContent(expected, tree);
+    }
+
+    @Test
+    public void remove() throws Exception {
+        List<Integer> expected = new ArrayList<>();
+        BPlusTree<Integer> tree = new BPlusTree<>(new ComparableComparator<>(), CAPACITY);
+        Random random = new Random(7);
+        for (int i = 0; i < 1 << 12; ++i) {
+            Integer e = random.nextInt(64);
+            if (random.nextBoolean()) {
+                expected.add(e);
+                tree.add(e);
+            }
+            else {
+                assertEquals(expected.remove(e), tree.remove(e));
+            }
+
+            assertEquals(expected.contains(e), tree.contains(e));
+        }
+
+        Collections.sort(expected);
+        assertContent(expected, tree);
+
+        assertFalse(tree.remove("A"));
+        assertFalse(tree.remove(null));
+        assertFalse(tree.contains(null));
+    }
+
+    @Test
+    public void iteratorRemove() throws Exception {
+        BPlusTree<Integer> tree = createTree(0, 100);
+        tree.removeIf(e -> e % 3 != 0);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i <= 100; i += 3) {
+            expected.add(i);
+        }
+
+        assertContent(expected, tree);
+    }
+
+    @Test
+    public void iteratorFailsFast() throws Exception {
+        BPlusTree<Integer> tree = createTree(0, 10);
+        Iterator<Integer> iterator = tree.iterator();
+        iterator.next();
+        iterator.remove();
+        assertEquals(Integer.valueOf(1), iterator.next());
+
+        tree.add(20);
+        thrown.expect(ConcurrentModificationException.class);
+        iterator.next();
+    }
+
+    @Test
+    public void iteratorOverEmptyTreeFailsFast() throws Exception {
+        BPlusTree<Integer> tree = new BPlusTree<>();
+        Iterator<Integer> iterator = tree.iterator();
+        tree.add(1);
+        assertTrue(iterator.hasNext());
+
+        thrown.expect(ConcurrentModificationException.class);
+        iterator.next();
+    }
+
+    @Test
+    public void retainInterval() throws Exception {
+        BPlusTree<Integer> tree = createTree(0, 1 << 10);
+        tree.retainSegment(22, 513);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 22; i <= 513; ++i) {
+            expected.add(i);
+        }
+
+        assertContent(expected, tree);
+
+        tree.retainInterval(22, 513);
+        assertEquals(expected.subList(1, expected.size() - 1), new ArrayList<>(tree));
+    }
+
+    @Test
+    public void retainOverlappingIntervalMatchesAVLTree() throws Exception {
+        BPlusTree<Integer> tree = createTree(0, 1 << 10);
+        AVLTree<Integer> reference = new AVLTree<>(new ArrayList<>(tree));
+
+        tree.retainSegment(513, 22);
+        reference.retainSegment(513, 22);
+        assertEquals(new ArrayList<>(reference), new ArrayList<>(tree));
+    }
+
+    @Test
+    public void removeInterval() throws Exception {
+        BPlusTree<Integer> tree = createTree(0, 1 << 10);
+        tree.removeInterval(22, 513);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i <= 1 << 10; ++i) {
+            if (i <= 22 || i >= 513) {
+                expected.add(i);
+            }
+        }
+
+        assertContent(expected, tree);
+    }
+
+    @Test
+    public void splitAndJoin() throws Exception {
+        BPlusTree<Integer> tree = createTree(0, 1 << 10);
+        List<BPlusTree<Integer>> parts = tree.split(300, true);
+        assertTrue(tree.isEmpty());
+        assertEquals(301, parts.get(0).size());
+        assertEquals((1 << 10) - 300, parts.get(1).size());
+        assertEquals(Integer.valueOf(300), parts.get(0).get(300));
+        assertEquals(Integer.valueOf(301), parts.get(1).get(0));
+
+        BPlusTree<Integer> small = createTree(2000, 2002);
+        BPlusTree<Integer> joined = BPlusTree.join(BPlusTree.join(parts.get(0), parts.get(1)), small);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i <= 1 << 10; ++i) {
+            expected.add(i);
+        }
+
+        expected.addAll(Arrays.asList(2000, 2001, 2002));
+        assertContent(expected, joined);
+
+        joined.add(1500);
+        assertTrue(joined.contains(1500));
+        assertEquals(Integer.valueOf(1500), joined.get((1 << 10) + 1));
+    }
+
+    @Test
+    public void derivedTreesKeepKeyKind() throws Exception {
+        List<BPlusTree<Integer>> parts = createTree(0, 10).split(20, true);
+        assertEquals(ComparableComparator.INTEGER, parts.get(0).keyKind);
+        assertTrue(parts.get(1).isEmpty());
+        assertEquals(ComparableComparator.INTEGER, parts.get(1).keyKind);
+
+        BPlusTree<Integer> empty = new BPlusTree<>(new ComparableComparator<>(), CAPACITY);
+        assertEquals(ComparableComparator.INTEGER, BPlusTree.join(empty, parts.get(0)).keyKind);
+    }
+
+    @Test
+    public void createPicksLayoutBySize() throws Exception {
+        assertTrue(OrderedCollection.create(16) instanceof AVLTree);
+        assertTrue(OrderedCollection.create(OrderedCollection.FAT_NODE_THRESHOLD) instanceof BPlusTree);
+    }
+
+    @Test
+    public void getOutOfBounds() throws Exception {
+        BPlusTree<Integer> tree = createTree(1, 3);
+
+        thrown.expect(IndexOutOfBoundsException.class);
+        tree.get(3);
+    }
+}
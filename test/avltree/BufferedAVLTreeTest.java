@@ -0,0 +1,200 @@
+package avltree;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BufferedAVLTreeTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static BufferedAVLTree<Integer> range(int from, int to) {
+        BufferedAVLTree<Integer> tree = new BufferedAVLTree<>();
+        for (Integer i = from; i < to; ++i) {
+            tree.add(i);
+        }
+
+        tree.flush();
+        return tree;
+    }
+
+    @Test
+    public void readsSeeBufferedWrites() throws Exception {
+        BufferedAVLTree<Integer> tree = range(0, 100);
+        tree.add(50);
+        tree.add(-1);
+        tree.add(1000);
+        tree.remove(10);
+        tree.remove(99);
+        assertEquals(5, tree.getBufferedCount());
+        assertEquals(100, tree.nodeCount());
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = -1; i < 99; ++i) {
+            if (i != 10) {
+                expected.add(i);
+            }
+        }
+        expected.add(51, 50);
+        expected.add(1000);
+
+        assertEquals(expected.size(), tree.size());
+        assertEquals(expected, new ArrayList<>(tree));
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i), tree.get(i));
+        }
+
+        List<Integer> descending = new ArrayList<>();
+        tree.descendingIterator().forEachRemaining(descending::add);
+        Collections.reverse(descending);
+        assertEquals(expected, descending);
+
+        assertTrue(tree.contains(1000));
+        assertFalse(tree.contains(10));
+        assertFalse(tree.contains(99));
+        assertEquals(Integer.valueOf(11), tree.ceilingCyclic(10));
+        assertEquals(Integer.valueOf(-1), tree.higherCyclic(1000));
+        assertEquals(Arrays.asList(-1, 1000), tree.select(0, expected.size() - 1));
+        assertEquals(5, tree.getBufferedCount());
+    }
+
+    @Test
+    public void removeCancelsBufferedInsert() throws Exception {
+        BufferedAVLTree<Integer> tree = range(0, 10);
+        tree.add(20);
+        assertTrue(tree.remove(20));
+        assertEquals(0, tree.getBufferedCount());
+        assertFalse(tree.remove(20));
+
+        assertTrue(tree.remove(5));
+        assertFalse(tree.remove(5));
+        assertFalse(tree.remove("5"));
+        assertEquals(1, tree.getBufferedCount());
+        assertEquals(9, tree.size());
+    }
+
+    @Test
+    public void duplicatesAcrossBufferAndTree() throws Exception {
+        BufferedAVLTree<Integer> tree = new BufferedAVLTree<>(Arrays.asList(3, 3, 1));
+        tree.flush();
+        tree.add(3);
+        tree.remove(3);
+        tree.remove(3);
+        assertEquals(Arrays.asList(1, 3), new ArrayList<>(tree));
+        assertEquals(Integer.valueOf(3), tree.get(1));
+        assertTrue(tree.contains(3));
+
+        tree.flush();
+        assertEquals(Arrays.asList(1, 3), new ArrayList<>(tree));
+        assertTrue(AVLTreeTest.treeIsBalanced(tree));
+    }
+
+    @Test
+    public void flushesWhenFull() throws Exception {
+        BufferedAVLTree<Integer> tree = range(0, 1000);
+        tree.setBufferCapacity(4);
+        tree.add(2000);
+        tree.remove(0);
+        tree.remove(1);
+        assertEquals(3, tree.getBufferedCount());
+        assertEquals(1000, tree.nodeCount());
+
+        // Small next to the tree, so merged through finger operations
+        tree.add(-5);
+        assertEquals(0, tree.getBufferedCount());
+        assertEquals(1000, tree.nodeCount());
+        assertEquals(Integer.valueOf(-5), tree.get(0));
+        assertEquals(Integer.valueOf(2000), tree.get(999));
+        AVLInvariants.check(tree);
+
+        // Large next to the tree, so rebuilt in one pass
+        BufferedAVLTree<Integer> small = range(0, 4);
+        small.setBufferCapacity(8);
+        for (Integer i = 10; i < 18; ++i) {
+            small.add(i);
+        }
+        assertEquals(0, small.getBufferedCount());
+        assertEquals(12, small.nodeCount());
+        AVLInvariants.check(small);
+    }
+
+    @Test
+    public void nodeOperationsFlushFirst() throws Exception {
+        BufferedAVLTree<Integer> tree = range(0, 20);
+        tree.add(100);
+        tree.remove(3);
+        assertEquals(100, (int) tree.fingerFind(null, 100).value);
+        assertEquals(0, tree.getBufferedCount());
+
+        tree.remove(4);
+        tree.add(50);
+        tree.retainSegment(2, 60);
+        assertEquals(0, tree.getBufferedCount());
+        assertEquals(17, tree.size());
+
+        tree.add(10);
+        List<AVLTree<Integer>> parts = tree.split(10, true);
+        assertEquals(Arrays.asList(2, 5, 6, 7, 8, 9, 10, 10), new ArrayList<>(parts.get(0)));
+        assertTrue(parts.get(1) instanceof BufferedAVLTree);
+
+        AVLTree<Integer> joined = AVLTree.join(parts.get(0), parts.get(1));
+        assertEquals(18, joined.size());
+        assertEquals(Integer.valueOf(50), joined.get(17));
+    }
+
+    @Test
+    public void iteratorRemove() throws Exception {
+        for (boolean descending : new boolean[] { false, true }) {
+            BufferedAVLTree<Integer> tree = range(0, 30);
+            for (Integer i = 100; i < 110; ++i) {
+                tree.add(i);
+            }
+            tree.remove(6);
+
+            Iterator<Integer> iterator = descending ? tree.descendingIterator() : tree.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() % 2 == 0) {
+                    iterator.remove();
+                }
+            }
+
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 1; i < 30; i += 2) {
+                expected.add(i);
+            }
+            for (int i = 101; i < 110; i += 2) {
+                expected.add(i);
+            }
+            assertEquals(expected, new ArrayList<>(tree));
+
+            tree.flush();
+            assertEquals(expected, new ArrayList<>(tree));
+            AVLInvariants.check(tree);
+        }
+    }
+
+    @Test
+    public void bufferedBytes() throws Exception {
+        BufferedAVLTree<Integer> tree = range(0, 100);
+        long flushed = tree.estimatedBytes();
+        tree.add(1000);
+        assertEquals(flushed, tree.estimatedBytes());
+
+        tree.flush();
+        assertEquals(flushed + MemoryLayout.AVL_NODE_BYTES, tree.estimatedBytes());
+    }
+
+    @Test
+    public void invalidCapacity() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new BufferedAVLTree<Integer>().setBufferCapacity(0);
+    }
+}
@@ -0,0 +1,156 @@
+package avltree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChangeLogTest {
+    private static <T> void assertReplicated(AVLTree<T> source, AVLTree<T> replica) {
+        assertEquals(new ArrayList<>(source), new ArrayList<>(replica));
+    }
+
+    @Test
+    public void replicateMutations() throws Exception {
+        AVLTree<Integer> source = new AVLTree<>();
+        source.setChangeLog(new ChangeLog<>());
+        ChangeLog<Integer>.Subscriber subscriber = source.getChangeLog().subscribe();
+        AVLTree<Integer> replica = new AVLTree<>();
+
+        for (Integer i = 0; i < 100; ++i) {
+            source.add(i);
+        }
+
+        source.remove(50);
+        source.remove(500);
+        source.removeSegment(10, 20);
+        source.retainInterval(80, 5);
+        assertEquals(100 + 1 + 1 + 1, subscriber.lag());
+
+        while (subscriber.lag() > 0) {
+            assertTrue(subscriber.applyTo(replica, 16) > 0);
+        }
+
+        assertReplicated(source, replica);
+
+        Iterator<Integer> iterator = source.iterator();
+        iterator.next();
+        iterator.remove();
+        AVLTree<Integer> joined = AVLTree.join(source, new AVLTree<>(Arrays.asList(200, 201)));
+        assertSame(source.getChangeLog(), joined.getChangeLog());
+
+        assertEquals(2, subscriber.applyTo(replica, 16));
+        assertReplicated(joined, replica);
+
+        joined.clear();
+        assertEquals(1, subscriber.applyTo(replica, 16));
+        assertTrue(replica.isEmpty());
+    }
+
+    @Test
+    public void overrunForcesResync() throws Exception {
+        AVLTree<Integer> source = new AVLTree<>();
+        source.setChangeLog(new ChangeLog<>(8));
+        ChangeLog<Integer>.Subscriber subscriber = source.getChangeLog().subscribe();
+        AVLTree<Integer> replica = new AVLTree<>();
+
+        for (Integer i = 0; i < 20; ++i) {
+            source.add(i);
+        }
+
+        assertEquals(-1, subscriber.applyTo(replica, 16));
+        subscriber.resync(replica, source);
+        assertEquals(0, subscriber.lag());
+        assertReplicated(source, replica);
+
+        source.add(100);
+        assertEquals(1, subscriber.applyTo(replica, 16));
+        assertReplicated(source, replica);
+    }
+
+    @Test
+    public void resyncFromWriterSnapshot() throws Exception {
+        AVLTree<Integer> source = new AVLTree<>();
+        source.setChangeLog(new ChangeLog<>(8));
+        ChangeLog<Integer>.Subscriber subscriber = source.getChangeLog().subscribe();
+        AVLTree<Integer> replica = new AVLTree<>();
+
+        for (Integer i = 0; i < 20; ++i) {
+            source.add(i);
+        }
+
+        // The writer snapshots and goes on; the subscriber catches up later from the snapshot and the log
+        ChangeLog.Snapshot<Integer> snapshot = source.getChangeLog().snapshot(source);
+        source.add(100);
+        source.remove(3);
+        assertSame(snapshot, source.getChangeLog().getLatestSnapshot());
+
+        assertEquals(-1, subscriber.applyTo(replica, 16));
+        subscriber.resync(replica, snapshot);
+        assertEquals(2, subscriber.applyTo(replica, 16));
+        assertReplicated(source, replica);
+
+        ChangeLog.Snapshot<Integer> stale = source.getChangeLog().snapshot(source);
+        for (Integer i = 200; i < 220; ++i) {
+            source.add(i);
+        }
+        subscriber.resync(replica, stale);
+        assertEquals(-1, subscriber.applyTo(replica, 16));
+    }
+
+    @Test
+    public void chainedReplicaFollowsJoinAndClear() throws Exception {
+        AVLTree<Integer> source = new AVLTree<>(Arrays.asList(1, 2, 3));
+        source.setChangeLog(new ChangeLog<>());
+        ChangeLog<Integer>.Subscriber subscriber = source.getChangeLog().subscribe();
+
+        AVLTree<Integer> replica = new AVLTree<>(Arrays.asList(1, 2, 3));
+        replica.setChangeLog(new ChangeLog<>());
+        ChangeLog<Integer>.Subscriber downstream = replica.getChangeLog().subscribe();
+        AVLTree<Integer> chained = new AVLTree<>(Arrays.asList(1, 2, 3));
+
+        AVLTree<Integer> joined = AVLTree.join(source, new AVLTree<>(Arrays.asList(7, 8)));
+        assertEquals(1, subscriber.applyTo(replica, 16));
+        assertEquals(1, downstream.applyTo(chained, 16));
+        assertReplicated(joined, chained);
+        AVLInvariants.check(chained);
+
+        joined.clear();
+        assertEquals(1, subscriber.applyTo(replica, 16));
+        assertEquals(1, downstream.applyTo(chained, 16));
+        assertTrue(chained.isEmpty());
+    }
+
+    @Test
+    public void setHeadForcesResync() throws Exception {
+        AVLTree<Integer> source = new AVLTree<>();
+        source.setChangeLog(new ChangeLog<>());
+        ChangeLog<Integer>.Subscriber subscriber = source.getChangeLog().subscribe();
+
+        source.setHead(new AVLNode<>(1));
+        List<ChangeLog.Change<Integer>> changes = new ArrayList<>();
+        assertFalse(subscriber.poll(changes, 16));
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void replicateMultiset() throws Exception {
+        AVLMultiset<Integer> source = new AVLMultiset<>();
+        source.setChangeLog(new ChangeLog<>());
+        ChangeLog<Integer>.Subscriber subscriber = source.getChangeLog().subscribe();
+        AVLMultiset<Integer> replica = new AVLMultiset<>();
+
+        source.add(1, 5);
+        source.add(2, 3);
+        source.remove(1, 10);
+        source.add(3);
+
+        assertEquals(4, subscriber.applyTo(replica, 16));
+        assertReplicated(source, replica);
+        assertEquals(3, replica.count(2));
+    }
+}
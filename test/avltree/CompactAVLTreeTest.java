@@ -0,0 +1,169 @@
+package avltree;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompactAVLTreeTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static CompactAVLTree<Integer> range(int from, int to) {
+        CompactAVLTree<Integer> tree = new CompactAVLTree<>();
+        for (Integer i = from; i < to; ++i) {
+            tree.add(i);
+        }
+
+        return tree;
+    }
+
+    @Test
+    public void promoteAndDemoteWithHysteresis() throws Exception {
+        CompactAVLTree<Integer> tree = range(0, CompactAVLTree.DEFAULT_PROMOTE_THRESHOLD);
+        assertTrue(tree.isCompact());
+
+        tree.add(100);
+        assertFalse(tree.isCompact());
+        assertTrue(AVLTreeTest.treeIsBalanced(tree));
+
+        for (Integer i = 0; i < 10; ++i) {
+            tree.remove(i);
+        }
+        assertFalse(tree.isCompact());
+
+        for (Integer i = 10; i < 17; ++i) {
+            tree.remove(i);
+        }
+        assertTrue(tree.isCompact());
+        assertEquals(16, tree.size());
+        assertEquals(Integer.valueOf(17), tree.get(0));
+        assertEquals(Integer.valueOf(100), tree.get(15));
+    }
+
+    @Test
+    public void duplicatesAndLookups() throws Exception {
+        CompactAVLTree<Integer> tree = new CompactAVLTree<>(Arrays.asList(5, 1, 5, 3));
+        assertTrue(tree.isCompact());
+        assertEquals(Arrays.asList(1, 3, 5, 5), new ArrayList<>(tree));
+        assertTrue(tree.contains(3));
+        assertFalse(tree.contains(4));
+        assertFalse(tree.contains("3"));
+        assertTrue(tree.remove(5));
+        assertFalse(tree.remove(4));
+        assertEquals(Arrays.asList(1, 3, 5), new ArrayList<>(tree));
+
+        assertEquals(Integer.valueOf(3), tree.ceilingCyclic(2));
+        assertEquals(Integer.valueOf(1), tree.higherCyclic(5));
+        assertEquals(2, tree.countSegment(2, 5));
+        assertEquals(Arrays.asList(5, 1), tree.select(2, 0));
+        assertEquals(Integer.valueOf(3), tree.quantile(0.5));
+    }
+
+    @Test
+    public void iteratorsInBothRepresentations() throws Exception {
+        for (int size : new int[] { 10, 100 }) {
+            CompactAVLTree<Integer> tree = range(0, size);
+            Iterator<Integer> iterator = tree.descendingIterator();
+            assertEquals(Integer.valueOf(size - 1), iterator.next());
+
+            iterator = tree.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() % 3 != 0) {
+                    iterator.remove();
+                }
+            }
+
+            assertEquals((size + 2) / 3, tree.size());
+            for (Integer i : tree) {
+                assertEquals(0, i % 3);
+            }
+        }
+    }
+
+    @Test
+    public void splitJoinAndIntervals() throws Exception {
+        CompactAVLTree<Integer> tree = range(0, 20);
+        List<AVLTree<Integer>> parts = tree.split(7, true);
+        assertTrue(tree.isEmpty());
+        assertEquals(8, parts.get(0).size());
+        assertTrue(((CompactAVLTree<Integer>) parts.get(1)).isCompact());
+
+        // 20 elements are above the demote threshold, so the joined nodes stay
+        AVLTree<Integer> joined = AVLTree.join(parts.get(0), parts.get(1));
+        assertFalse(((CompactAVLTree<Integer>) joined).isCompact());
+        assertEquals(new ArrayList<>(range(0, 20)), new ArrayList<>(joined));
+
+        joined.retainSegment(5, 14);
+        assertTrue(((CompactAVLTree<Integer>) joined).isCompact());
+        assertEquals(Arrays.asList(5, 6, 7, 8, 9, 10, 11, 12, 13, 14), new ArrayList<>(joined));
+        joined.removeInterval(6, 13);
+        assertEquals(Arrays.asList(5, 6, 13, 14), new ArrayList<>(joined));
+    }
+
+    @Test
+    public void nodeAccessMaterializes() throws Exception {
+        CompactAVLTree<Integer> tree = range(0, 5);
+        AVLNode<Integer> finger = tree.fingerFind(null, 2);
+        assertFalse(tree.isCompact());
+        assertEquals(Integer.valueOf(2), finger.value);
+        assertEquals(Integer.valueOf(3), finger.next.value);
+        assertNotNull(range(0, 5).getHead());
+    }
+
+    @Test
+    public void fingerDroppedByDemotion() throws Exception {
+        CompactAVLTree<Integer> tree = range(0, 40);
+        AVLNode<Integer> finger = tree.fingerFind(null, 30);
+        for (Integer i = 0; i < 24; ++i) {
+            tree.remove(i);
+        }
+
+        assertTrue(tree.isCompact());
+        tree.add(50);
+        tree.fingerInsert(finger, 100);
+        assertEquals(18, tree.size());
+        assertEquals(Integer.valueOf(24), tree.get(0));
+        assertEquals(Integer.valueOf(50), tree.get(16));
+        assertEquals(Integer.valueOf(30), tree.fingerFind(finger, 30).value);
+        AVLInvariants.check(tree);
+    }
+
+    @Test
+    public void compactFootprint() throws Exception {
+        CompactAVLTree<Integer> compact = range(0, 30);
+        AVLTree<Integer> nodes = new AVLTree<>(new ArrayList<>(compact));
+        assertTrue(compact.isCompact());
+        assertEquals(0, compact.nodeCount());
+        assertTrue(compact.estimatedBytes() * 4 < nodes.estimatedBytes());
+    }
+
+    @Test
+    public void compactReplica() throws Exception {
+        AVLTree<Integer> source = new AVLTree<>();
+        source.setChangeLog(new ChangeLog<>());
+        ChangeLog<Integer>.Subscriber subscriber = source.getChangeLog().subscribe();
+        CompactAVLTree<Integer> replica = new CompactAVLTree<>();
+
+        source.addAll(Arrays.asList(3, 1, 2));
+        AVLTree<Integer> joined = AVLTree.join(source, new AVLTree<>(Arrays.asList(7, 8)));
+        while (subscriber.lag() > 0) {
+            assertTrue(subscriber.applyTo(replica, 16) > 0);
+        }
+
+        assertTrue(replica.isCompact());
+        assertEquals(new ArrayList<>(joined), new ArrayList<>(replica));
+    }
+
+    @Test
+    public void invalidThresholds() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new CompactAVLTree<Integer>().setThresholds(8, 8);
+    }
+}
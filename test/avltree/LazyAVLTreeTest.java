@@ -0,0 +1,122 @@
+package avltree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LazyAVLTreeTest {
+    private static <T> int countNodes(AVLNode<T> node) {
+        return node == null ? 0 : countNodes(node.left) + countNodes(node.right) + 1;
+    }
+
+    private LazyAVLTree<Integer> createTree(int count) {
+        LazyAVLTree<Integer> res = new LazyAVLTree<>();
+        for (Integer i = 0; i < count; ++i) {
+            res.add(i);
+        }
+
+        return res;
+    }
+
+    @Test
+    public void removeMarksDead() throws Exception {
+        LazyAVLTree<Integer> tree = createTree(100);
+        for (int i = 0; i < 100; i += 3) {
+            assertTrue(tree.remove(i));
+            assertFalse(tree.remove(i));
+            assertFalse(tree.contains(i));
+        }
+
+        assertEquals(66, tree.size());
+        assertEquals(100, countNodes(tree.head));
+        assertEquals(34, tree.getTombstoneCount());
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            if (i % 3 != 0) {
+                expected.add(i);
+            }
+        }
+
+        assertEquals(expected, new ArrayList<>(tree));
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i), tree.get(i));
+        }
+    }
+
+    @Test
+    public void compactionPastThreshold() throws Exception {
+        LazyAVLTree<Integer> tree = createTree(1 << 10);
+        tree.setCompactionThreshold(0.25);
+        for (int i = 0; i < 1 << 9; ++i) {
+            tree.remove(i);
+        }
+
+        assertEquals(1 << 9, tree.size());
+        assertTrue(countNodes(tree.head) < (1 << 9) * 4 / 3 + 1);
+        assertTrue(AVLTreeTest.treeIsBalanced(tree));
+
+        Integer i = 1 << 9;
+        for (Integer e : tree) {
+            assertEquals(i++, e);
+        }
+    }
+
+    @Test
+    public void fingerDroppedByCompaction() throws Exception {
+        LazyAVLTree<Integer> tree = createTree(16);
+        AVLNode<Integer> finger = tree.fingerFind(null, 3);
+        for (int i = 0; i < 9; ++i) {
+            tree.remove(i);
+        }
+
+        assertEquals(0, tree.getTombstoneCount());
+        assertNull(tree.fingerFind(finger, 3));
+        assertEquals(Integer.valueOf(12), tree.fingerFind(finger, 12).value);
+        tree.fingerInsert(finger, 3);
+        assertEquals(Arrays.asList(3, 9, 10, 11, 12, 13, 14, 15), new ArrayList<>(tree));
+        AVLInvariants.check(tree);
+    }
+
+    @Test
+    public void explicitCompact() throws Exception {
+        LazyAVLTree<Integer> tree = createTree(10);
+        tree.remove(4);
+        tree.remove(5);
+        tree.compact();
+
+        assertEquals(8, countNodes(tree.head));
+        assertEquals(0, tree.getTombstoneCount());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 6, 7, 8, 9), new ArrayList<>(tree));
+    }
+
+    @Test
+    public void duplicatesAroundDeadNode() throws Exception {
+        LazyAVLTree<Integer> tree = new LazyAVLTree<>();
+        for (int i = 0; i < 16; ++i) {
+            tree.add(7);
+        }
+
+        for (int i = 0; i < 15; ++i) {
+            assertTrue(tree.remove(7));
+            assertTrue(tree.contains(7));
+        }
+
+        assertTrue(tree.remove(7));
+        assertFalse(tree.contains(7));
+        assertTrue(tree.isEmpty());
+    }
+
+    @Test
+    public void removeEverything() throws Exception {
+        LazyAVLTree<Integer> tree = createTree(64);
+        tree.clear();
+
+        assertTrue(tree.isEmpty());
+        assertFalse(tree.iterator().hasNext());
+    }
+}